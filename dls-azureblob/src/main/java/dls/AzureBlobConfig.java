@@ -1,6 +1,8 @@
 package dls;
 
 import dls.service.AzureSyncService;
+import dls.util.BufferPool;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -12,4 +14,10 @@ public class AzureBlobConfig {
     public AzureSyncService schedule() {
         return new AzureSyncService();
     }
+
+    @Bean
+    public BufferPool getBufferPool(@Value("${dls.azure.Storage.AppendBlockSize:8388608}") int bufferSize,
+                                    @Value("${dls.azure.Storage.AppendBufferCount:8}") int bufferCount) {
+        return new BufferPool(bufferSize, bufferCount);
+    }
 }
@@ -1,5 +1,7 @@
 package dls.service;
 
+import com.azure.core.util.ProgressListener;
+import dls.bean.DlsFileStatus.UploadStatus;
 import dls.repo.FileRepo;
 import dls.service.AzureRepo;
 import lombok.NonNull;
@@ -13,10 +15,13 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 @Service
 public class AzureBlobService implements IFileManagementService, IBlobService {
+	private static final int PROGRESS_STEP = 10;
+
 	@Autowired private FileRepo fileRepo;
 	@Value("${local.fs.failsafe.path}") 
 	private String failsafeFilePath;
@@ -27,8 +32,21 @@ public class AzureBlobService implements IFileManagementService, IBlobService {
 	@Autowired
 	AzureRepo azureRepo;
 
+	@Autowired
+	private StorageWriteQueue writeQueue;
+
 	@Override
 	public void write(@NonNull MultipartFile multipart, final String fsPath, final Long fileId) {
+		if(enableBlob && writeQueue.isEnabled()) {
+			try {
+				// same blob name as the in place upload below
+				String blobPath = fsPath.substring(0, fsPath.lastIndexOf('/')) + '/' + multipart.getOriginalFilename();
+				writeQueue.enqueue(multipart, blobPath, fileId, getStorage());
+				return;
+			} catch (IOException e) {
+				log.error("Could not queue {} for blob storage, writing in place. {}", fsPath, e.getMessage());
+			}
+		}
 		Mono.fromSupplier(() -> {	
 			try {
 				boolean success=false;
@@ -48,7 +66,7 @@ public class AzureBlobService implements IFileManagementService, IBlobService {
 
 				if(enableBlob) {
 					//Copy the local file to Azure blob
-				    success = azureRepo.uploadBlob(userRoot, multipart);
+				    success = azureRepo.uploadBlob(userRoot, multipart, uploadProgress(fileId, multipart.getSize()));
 					
 					if (!fileDir.delete()) {
 						log.error("Error in deleting local directory");
@@ -70,9 +88,27 @@ public class AzureBlobService implements IFileManagementService, IBlobService {
 				o.setUploaded(status);
 			}
 			fileRepo.saveAndFlush(o);
+			if(enableBlob && status) {
+				fileRepo.updateUploadStatus(fileId, UploadStatus.UPLOADED.name(), multipart.getSize());
+			}
 		}));
 	}
 
+	/**
+	 * Record upload progress of a file as {@link UploadStatus#UPLOADING} and the bytes transferred, with one update
+	 * per {@value #PROGRESS_STEP} percent.
+	 */
+	private ProgressListener uploadProgress(final Long fileId, final long size) {
+
+		AtomicInteger reported = new AtomicInteger(-1);
+		return bytesTransferred -> {
+			int step = (size <= 0) ? 100 : (int) (bytesTransferred * 100 / size) / PROGRESS_STEP * PROGRESS_STEP;
+			if(reported.getAndAccumulate(step, Math::max) < step) {
+				fileRepo.updateUploadStatus(fileId, UploadStatus.UPLOADING.name(), bytesTransferred);
+			}
+		};
+	}
+
 	@Override
 	public String getBlobURL(String blobPath) {
 		try {
@@ -87,7 +123,23 @@ public class AzureBlobService implements IFileManagementService, IBlobService {
 	
 	@Override
 	public void writeBundle(@NonNull File bundleFile, String fsPath, final Long fileId) {
-		//TODO
+		if(enableBlob && writeQueue.isEnabled()) {
+			writeQueue.enqueue(bundleFile, fsPath, fileId, getStorage());
+		}
+		//TODO synchronous bundle upload
+	}
+
+	@Override
+	public void store(@NonNull File localFile, String fsPath, final Long fileId) throws IOException {
+		if(!azureRepo.uploadBlob(localFile, fsPath, uploadProgress(fileId, localFile.length()))) {
+			throw new IOException("Upload to blob storage failed for " + fsPath);
+		}
+		fileRepo.updateUploadStatus(fileId, UploadStatus.UPLOADED.name(), localFile.length());
+	}
+
+	@Override
+	public String getStorage() {
+		return enableBlob ? "B" : "L";
 	}
 	
 	@Override
@@ -135,6 +187,15 @@ public class AzureBlobService implements IFileManagementService, IBlobService {
 		return false;
 	}
 
+	@Override
+	public void move(@NonNull String srcPath, @NonNull String destPath) throws IOException {
+
+		if(!enableBlob || !azureRepo.copyBlob(srcPath, destPath)) {
+			throw new IOException("Could not move " + srcPath + " to " + destPath);
+		}
+		azureRepo.deleteBlob(srcPath);
+	}
+
 	@Override
 	public void renameDirectory(@NonNull String srcDir, @NonNull String destDir) throws IOException {
 		//TODO
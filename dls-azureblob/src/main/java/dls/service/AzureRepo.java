@@ -1,25 +1,45 @@
 package dls.service;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.azure.core.util.BinaryData;
+import com.azure.core.util.Context;
+import com.azure.core.util.ProgressListener;
 import com.azure.storage.blob.BlobClient;
 import com.azure.storage.blob.BlobContainerClient;
 import com.azure.storage.blob.BlobServiceClient;
 import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.models.BlobHttpHeaders;
+import com.azure.storage.blob.models.BlobProperties;
+import com.azure.storage.blob.models.BlobRange;
+import com.azure.storage.blob.models.BlobRequestConditions;
 import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.models.Block;
+import com.azure.storage.blob.models.BlockListType;
+import com.azure.storage.blob.models.ParallelTransferOptions;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
+import com.azure.storage.blob.options.BlobUploadFromFileOptions;
+import com.azure.storage.blob.options.BlockBlobCommitBlockListOptions;
 import com.azure.storage.blob.sas.BlobSasPermission;
 import com.azure.storage.blob.sas.BlobServiceSasSignatureValues;
-import com.azure.storage.blob.specialized.AppendBlobClient;
+import com.azure.storage.blob.specialized.BlobClientBase;
+import com.azure.storage.blob.specialized.BlockBlobClient;
 
+import dls.util.BufferPool;
 import dls.util.Constants;
 import lombok.extern.slf4j.Slf4j;
 
@@ -28,7 +48,15 @@ import lombok.extern.slf4j.Slf4j;
 public class AzureRepo {
 	 @Autowired
 	 private Environment env;
+	 @Autowired
+	 private BufferPool bufferPool;
 	 
+	 // most blocks a block blob can have committed, and largest block the service copies from a URL
+	 private static final int MAX_COMMITTED_BLOCKS = 50_000;
+	 private static final long DEFAULT_COPY_BLOCK_SIZE = 4000L * 1024 * 1024;
+	 private static final long DEFAULT_UPLOAD_BLOCK_SIZE = 8L * 1024 * 1024;
+	 private static final int DEFAULT_UPLOAD_CONCURRENCY = 8;
+
 	 static String connectStr;
 	 static BlobServiceClient blobServiceClient;
 	 String containerName;
@@ -53,6 +81,15 @@ public class AzureRepo {
 	}
 	 
 	public boolean uploadBlob(String dirName, MultipartFile file) {
+		return uploadBlob(dirName, file, null);
+	}
+
+	/**
+	 * Upload the file as blocks staged in parallel. Block size, concurrency and the size up to which a
+	 * single put is used are configurable.
+	 * @param progressListener notified with the total number of bytes transferred, may be null
+	 */
+	public boolean uploadBlob(String dirName, MultipartFile file, ProgressListener progressListener) {
 		try {
 			// Get container client object by container name
 			BlobContainerClient blobContainerClient = blobServiceClient.getBlobContainerClient(containerName);
@@ -70,7 +107,10 @@ public class AzureRepo {
 			}
 
 			// Upload the blob
-			blobClient.upload(file.getInputStream(), file.getSize(), true);
+			try (InputStream inputStream = file.getInputStream()) {
+				blobClient.uploadWithResponse(new BlobParallelUploadOptions(BinaryData.fromStream(inputStream, file.getSize()))
+						.setParallelTransferOptions(uploadTransferOptions(progressListener)), null, Context.NONE);
+			}
 			log.info(Constants.UserMsg.BLOB_UPLOADED);
 			return true;
 		} catch (Exception ex) {
@@ -78,6 +118,36 @@ public class AzureRepo {
 			return false;
 		}
 	}
+
+	/**
+	 * Upload a local file to the given blob path, overwriting an existing blob, with the same parallel
+	 * block settings as {@link #uploadBlob(String, MultipartFile, ProgressListener)}
+	 */
+	public boolean uploadBlob(File file, String blobPath, ProgressListener progressListener) {
+		try {
+			BlobContainerClient blobContainerClient = blobServiceClient.getBlobContainerClient(containerName);
+			if (!blobContainerClient.exists()) {
+				log.error(Constants.UserMsg.CONTAINER_NOT_EXIST);
+				return false;
+			}
+			blobContainerClient.getBlobClient(blobPath)
+					.uploadFromFileWithResponse(new BlobUploadFromFileOptions(file.getAbsolutePath())
+							.setParallelTransferOptions(uploadTransferOptions(progressListener)), null, Context.NONE);
+			log.info(Constants.UserMsg.BLOB_UPLOADED);
+			return true;
+		} catch (Exception ex) {
+			log.error(Constants.UserMsg.INTERNAL_SERVER_ERROR + " : " + ex.toString());
+			return false;
+		}
+	}
+
+	private ParallelTransferOptions uploadTransferOptions(ProgressListener progressListener) {
+		return new ParallelTransferOptions()
+				.setBlockSizeLong(env.getProperty("dls.azure.Storage.UploadBlockSize", Long.class, DEFAULT_UPLOAD_BLOCK_SIZE))
+				.setMaxConcurrency(env.getProperty("dls.azure.Storage.UploadConcurrency", Integer.class, DEFAULT_UPLOAD_CONCURRENCY))
+				.setMaxSingleUploadSizeLong(env.getProperty("dls.azure.Storage.MaxSingleUploadSize", Long.class, DEFAULT_UPLOAD_BLOCK_SIZE))
+				.setProgressListener(progressListener);
+	}
 	
 	public String downloadBlobByURL(String blobPath) {
 		try {
@@ -143,46 +213,53 @@ public class AzureRepo {
 				return false;
 			}
 			
-			//1. Create a temporary AppendBlob
-			BlobClient newBlobClient = blobContainerClient.getBlobClient("tempappendblob");
-			AppendBlobClient appendBlobClient = newBlobClient.getAppendBlobClient();
-			appendBlobClient.deleteIfExists();
-			appendBlobClient.createIfNotExists();
-			
-			//2. Copy old contents of BlockBlob into AppendBlob
-			BlobClient blockBlobClient = blobContainerClient.getBlobClient(fsPath);
+			BlockBlobClient blockBlobClient = blobContainerClient.getBlobClient(fsPath).getBlockBlobClient();
 	    	if(!blockBlobClient.exists()) {
 	    		log.error(Constants.UserMsg.BLOB_NOT_EXIST);
 				return false;
 			}
-	    	ByteArrayOutputStream baos = new ByteArrayOutputStream();
-	    	blockBlobClient.download(baos);
-	    	byte[] con = baos.toByteArray();
-	    	InputStream targetStream = new ByteArrayInputStream(con);
-	    	long len = con.length;
-	    	appendBlobClient.appendBlock(targetStream, len);
-	    	
-			//3. Copy append contents of BlockBlob into AppendBlob
-	        byte[] content = file.getBytes();
-	    	InputStream inputStream =  new BufferedInputStream(file.getInputStream());
-	    	int contentlen = content.length;
-	    	appendBlobClient.appendBlock(inputStream, contentlen);
-	    	
-			//4. Delete BlockBlob
-	    	blockBlobClient.deleteIfExists();
-			
-			//5. Copy contents of Appendblob into new Blockblob
-	     	//Generate Blob SAS token
-	    	BlobSasPermission blobSasPermission = new BlobSasPermission().setReadPermission(true);                                                                                           
-	        OffsetDateTime expiryTime = OffsetDateTime.now().plusDays(1);   
-	        BlobServiceSasSignatureValues values = new BlobServiceSasSignatureValues(expiryTime, blobSasPermission).setStartTime(OffsetDateTime.now()); 
-	        String sasBlobToken = blockBlobClient.generateSas(values);
-	        //Copy blob from source to destination
-	        BlobClient newBlockBlobClient = blobContainerClient.getBlobClient(fsPath);
-	        newBlockBlobClient.copyFromUrl(appendBlobClient.getBlobUrl() + "?" + sasBlobToken);
-	        
-	        //6. Delete temporary AppendBlob
-	        appendBlobClient.deleteIfExists();
+	    	BlobProperties properties = blockBlobClient.getProperties();
+	    	List<String> blockIds = blockBlobClient.listBlocks(BlockListType.COMMITTED).getCommittedBlocks()
+	    			.stream()
+	    			.map(Block::getName)
+	    			.collect(Collectors.toList());
+
+	    	int blockSize = bufferPool.getBufferSize();
+	    	long appendedBlocks = Math.max(1, (file.getSize() + blockSize - 1) / blockSize);
+
+			//1. A blob written by a single put has no committed blocks, and the block list of a blob appended
+			//   to many times would outgrow the service limit, restage its content server side in large blocks
+	    	if((blockIds.isEmpty() && properties.getBlobSize() > 0)
+	    			|| blockIds.size() + appendedBlocks > MAX_COMMITTED_BLOCKS) {
+	    		blockIds = stageExistingContent(blockBlobClient, properties);
+	    	}
+
+			//2. Stage appended content as new blocks, through one pooled buffer of the append block size
+	    	byte[] buffer = bufferPool.acquire();
+	    	try (InputStream inputStream = file.getInputStream()) {
+	    		int read;
+	    		while((read = inputStream.readNBytes(buffer, 0, buffer.length)) > 0) {
+	    			String blockId = newBlockId();
+	    			blockBlobClient.stageBlock(blockId, new ByteArrayInputStream(buffer, 0, read), read);
+	    			blockIds.add(blockId);
+	    		}
+	    	} finally {
+	    		bufferPool.release(buffer);
+	    	}
+
+			//3. Commit the extended block list, rejected if the blob changed after it was listed. Committing a
+			//   block list replaces the metadata and HTTP headers of the blob, so the current ones are passed on,
+			//   except the MD5 of the content, which no longer holds.
+	    	blockBlobClient.commitBlockListWithResponse(new BlockBlobCommitBlockListOptions(blockIds)
+	    			.setHeaders(new BlobHttpHeaders()
+	    					.setContentType(properties.getContentType())
+	    					.setContentEncoding(properties.getContentEncoding())
+	    					.setContentLanguage(properties.getContentLanguage())
+	    					.setContentDisposition(properties.getContentDisposition())
+	    					.setCacheControl(properties.getCacheControl()))
+	    			.setMetadata(properties.getMetadata())
+	    			.setRequestConditions(new BlobRequestConditions().setIfMatch(properties.getETag())),
+	    			null, Context.NONE);
 	 
 	    	log.info(Constants.UserMsg.BLOB_APPENDED);
 			return true;
@@ -191,6 +268,37 @@ public class AzureRepo {
 			return false;
 		}
 	}
+
+	/**
+	 * Stage the current content of the blob as blocks copied server side, each of at most
+	 * <code>dls.azure.Storage.CopyBlockSize</code> bytes
+	 * @return ids of the staged blocks in order, to be committed in place of the current block list
+	 */
+	private List<String> stageExistingContent(BlockBlobClient blockBlobClient, BlobProperties properties) {
+
+		long copyBlockSize = env.getProperty("dls.azure.Storage.CopyBlockSize", Long.class, DEFAULT_COPY_BLOCK_SIZE);
+		String sourceUrl = blockBlobClient.getBlobUrl() + "?" + generateReadSas(blockBlobClient);
+		List<String> blockIds = new ArrayList<>();
+		for(long offset = 0; offset < properties.getBlobSize(); offset += copyBlockSize) {
+			String blockId = newBlockId();
+			blockBlobClient.stageBlockFromUrl(blockId, sourceUrl,
+					new BlobRange(offset, Math.min(copyBlockSize, properties.getBlobSize() - offset)));
+			blockIds.add(blockId);
+		}
+		return blockIds;
+	}
+
+	// same format as the ids generated by the SDK uploads, all block ids of a blob must have equal length
+	private static String newBlockId() {
+		return Base64.getEncoder().encodeToString(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String generateReadSas(BlobClientBase blobClient) {
+		BlobSasPermission blobSasPermission = new BlobSasPermission().setReadPermission(true);
+		OffsetDateTime expiryTime = OffsetDateTime.now().plusDays(1);
+		BlobServiceSasSignatureValues values = new BlobServiceSasSignatureValues(expiryTime, blobSasPermission).setStartTime(OffsetDateTime.now());
+		return blobClient.generateSas(values);
+	}
 	
 	public boolean copyBlob(String srcPath, String destPath) {
 		try {
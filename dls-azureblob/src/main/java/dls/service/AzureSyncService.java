@@ -20,6 +20,7 @@ import java.nio.file.Path;
 public class AzureSyncService {
 	
 	@Autowired private FileRepo fileRepo;
+	@Autowired private ContentStore contentStore;
 
 	@Value("${local.fs.failsafe.path}") 
 	private String failsafeFilePath;
@@ -41,7 +42,7 @@ public class AzureSyncService {
 					fsPath = StringUtils.trimLeadingCharacter(fsPath, '/');
 					fileRepo.findByFsPathAndDeleted(fsPath, false);
 //					Long id = Long.parseLong(fsPath.split("/")[1]);
-					fileRepo.findByFsPathAndStorage(fsPath, "H").ifPresent(vo -> {
+					contentStore.findStored(fsPath, "H").ifPresent(vo -> {
 						
 						boolean deleted = false;
 						
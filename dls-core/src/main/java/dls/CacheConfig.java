@@ -0,0 +1,42 @@
+package dls;
+
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches of <code>@Cacheable</code> methods, such as the <code>userId</code> and <code>userName</code> caches of
+ * {@link dls.repo.UserRepo}, bounded in size and age.
+ * <p>
+ * A cache keeps at most <code>dls.cache.&lt;name&gt;.size</code> entries, <code>dls.cache.size</code> by default,
+ * each for at most <code>dls.cache.&lt;name&gt;.ttl.ms</code>, <code>dls.cache.ttl.ms</code> by default.
+ */
+@org.springframework.context.annotation.Configuration
+public class CacheConfig {
+
+	@Value("${dls.cache.size:10000}") private long maximumSize;
+	@Value("${dls.cache.ttl.ms:600000}") private long ttlMillis;
+
+	@Bean
+	public CacheManager cacheManager(Environment ev) {
+
+		return new ConcurrentMapCacheManager() {
+			@Override
+			protected Cache createConcurrentMapCache(String name) {
+				return new ConcurrentMapCache(name, CacheBuilder.newBuilder()
+						.maximumSize(ev.getProperty("dls.cache." + name + ".size", Long.class, maximumSize))
+						.expireAfterWrite(ev.getProperty("dls.cache." + name + ".ttl.ms", Long.class, ttlMillis),
+								TimeUnit.MILLISECONDS)
+						.build()
+						.asMap(), isAllowNullValues());
+			}
+		};
+	}
+}
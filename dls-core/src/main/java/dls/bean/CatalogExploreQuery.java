@@ -68,6 +68,10 @@ public class CatalogExploreQuery {
 	private Integer pageNo = 1;
 	@Range(min=1L, max=Integer.MAX_VALUE, message="Invalid page size")
 	private Integer pageSize;
+	// keyset paging instead of pageNo, the token of the next page comes with each page
+	private String continuationToken;
+	// total of the results, counted by default only with pageNo
+	private Boolean count;
 
 
 	public interface PropertyNames {
@@ -50,6 +50,10 @@ public class CatalogQuery {
 	@Range(min=1L, max=Integer.MAX_VALUE, message="{query.invalid.pageNo}")
 	private Integer pageNo = 1;
 	private Integer pageSize;
+	// keyset paging instead of pageNo, the token of the next page comes with each page
+	private String continuationToken;
+	// total of the results, counted by default only with pageNo
+	private Boolean count;
 	
 }
 
@@ -8,31 +8,36 @@ import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 
+/**
+ * Queries for a user are scoped to the user's tenant and find the rows the user may see with
+ * <code>permitted_users @&gt; ARRAY[user]</code>, both answered by the <code>(tenant_id, permitted_users)</code>
+ * GIN index.
+ */
 public interface CatalogRepo extends JpaRepository<CatalogVO, Long>,
         JpaSpecificationExecutor<CatalogVO>
 {
     CatalogVO findByPathAndType(String path, char type);
 
-    @Query(nativeQuery = true, value = "SELECT * FROM CATALOG WHERE path = :path AND type = :type AND :userId = ANY(permitted_users)")
+    @Query(nativeQuery = true, value = "SELECT * FROM CATALOG WHERE path = :path AND type = :type AND tenant_id = (SELECT tenant_id FROM users WHERE id = :userId) AND permitted_users @> ARRAY[CAST(:userId AS bigint)]")
     CatalogVO findByPathAndTypeAndPermittedUser(@Param("path") String path,
                                                 @Param("type") char type,
                                                 @Param("userId") Long userId);
 
-    @Query(nativeQuery = true, value = "SELECT * FROM CATALOG WHERE type = :type AND parent IS NULL AND :userId = ANY(permitted_users)")
+    @Query(nativeQuery = true, value = "SELECT * FROM CATALOG WHERE type = :type AND parent IS NULL AND tenant_id = (SELECT tenant_id FROM users WHERE id = :userId) AND permitted_users @> ARRAY[CAST(:userId AS bigint)]")
     List<CatalogVO> findByTypeAndParentIsNullAndPermittedUser(@Param("type") char type,
                                                               @Param("userId") Long userId);
-    @Query(nativeQuery = true, value = "SELECT * FROM CATALOG WHERE type = :type AND :userId = ANY(permitted_users)")
+    @Query(nativeQuery = true, value = "SELECT * FROM CATALOG WHERE type = :type AND tenant_id = (SELECT tenant_id FROM users WHERE id = :userId) AND permitted_users @> ARRAY[CAST(:userId AS bigint)]")
     List<CatalogVO> findByTypeAndPermittedUser(@Param("type") char type,
                                                @Param("userId") Long userId);
-    @Query(nativeQuery = true, value = "SELECT * FROM CATALOG WHERE type = :type AND  ( parent LIKE :parent OR parent LIKE :parentWildCard) AND :userId = ANY(permitted_users)")
+    @Query(nativeQuery = true, value = "SELECT * FROM CATALOG WHERE type = :type AND  ( parent LIKE :parent OR parent LIKE :parentWildCard) AND tenant_id = (SELECT tenant_id FROM users WHERE id = :userId) AND permitted_users @> ARRAY[CAST(:userId AS bigint)]")
     List<CatalogVO> findByTypeAndParentLikeAndPermittedUser(@Param("type") char type,
                                                             @Param("parent") String parent,
                                                             @Param("parentWildCard") String parentWildCard,
                                                             @Param("userId") Long userId);
-    @Query(nativeQuery = true, value = "SELECT COUNT(*) FROM CATALOG WHERE type = :type AND parent IS NULL AND :userId = ANY(permitted_users)")
+    @Query(nativeQuery = true, value = "SELECT COUNT(*) FROM CATALOG WHERE type = :type AND parent IS NULL AND tenant_id = (SELECT tenant_id FROM users WHERE id = :userId) AND permitted_users @> ARRAY[CAST(:userId AS bigint)]")
     Integer countByTypeAndParentIsNullAndPermittedUser(@Param("type") char type,
                                                        @Param("userId") Long userId);
-    @Query(nativeQuery = true, value = "SELECT * FROM CATALOG WHERE type = :type AND  parent = :parent  AND :userId = ANY(permitted_users)")
+    @Query(nativeQuery = true, value = "SELECT * FROM CATALOG WHERE type = :type AND  parent = :parent  AND tenant_id = (SELECT tenant_id FROM users WHERE id = :userId) AND permitted_users @> ARRAY[CAST(:userId AS bigint)]")
     List<CatalogVO> findByTypeAndParentAndPermittedUser(@Param("type") char type,
                                                         @Param("parent") String parent,
                                                         @Param("userId") Long userId);
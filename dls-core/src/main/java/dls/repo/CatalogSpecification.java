@@ -1,12 +1,13 @@
 package dls.repo;
 
-import com.diffplug.common.base.Errors;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
-import dls.exception.DlsValidationException;
 import dls.vo.CatalogTextSearchVO;
-import dls.vo.FileMetaVO;
+import dls.vo.FileSearchDocumentVO;
 import dls.vo.FileSearchCriteria;
+import dls.vo.FileVO;
+import dls.vo.PermissionVO;
+import dls.vo.UserVO;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -16,8 +17,6 @@ import jakarta.persistence.criteria.*;
 import java.util.List;
 import java.util.Optional;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @Data
 @AllArgsConstructor
@@ -116,89 +115,43 @@ public class CatalogSpecification implements Specification<CatalogTextSearchVO>
 		// metadata
 		if(null != criteria.getMetadata()) {
 
-
 			Subquery <Long> sq = query.subquery(Long.class);
-
-			Root <FileMetaVO> meta = sq.from(FileMetaVO.class);
-
-
-
-			Predicate p = null;
-//			final StringTokenizer tokenizer =
-//					Errors.suppress().getWithDefault(() -> new StringTokenizer(criteria.getMetadata(), ",", true), null);
-
-			for(String elem : criteria.getMetadata().split(" *(,|&) *")) {
-//			while(tokenizer.hasMoreElements()) {
-
-//				String elem = tokenizer.nextElement().toString();
-				String[] kv = elem.replace('*', '%').split(OPERATOR_REGEX);
-
-				String str1 = Errors.suppress().getWithDefault(() -> kv[0], null);
-				String str2 = Errors.suppress().getWithDefault(() -> kv[1].replace("%", "\\%").replace("'", ""), null);
-
-				Predicate temp = null;
-
-				if (kv.length > 1) {
-					Pattern pattern = Pattern.compile(OPERATOR_REGEX);
-					Matcher matcher = pattern.matcher(elem);
-					String operator = "=";
-					if (matcher.find())
-					{
-						operator = matcher.group().trim();
-					}
-					Predicate value = null;
-					if(!operator.equalsIgnoreCase("=")) {
-						try {Double.parseDouble(str2);} catch (Exception e) {
-							throw new DlsValidationException("Invalid non-numeric value used with logical operator");
-						}
-					}
-					switch (operator) {
-						case ">=" : value = builder.greaterThanOrEqualTo(meta.get("value_numeric"), str2); break;
-						case "<=" : value = builder.lessThanOrEqualTo(meta.get("value_numeric"), str2); break;
-						case ">" : value = builder.greaterThan(meta.get("value_numeric"), str2); break;
-						case "<" : value = builder.lessThan(meta.get("value_numeric"), str2); break;
-						case "!=" : value = builder.notEqual(meta.get("value_numeric"), str2); break;
-						default:
-							value = builder.like(meta.get("value"), str2);
-					}
-					temp = builder.and(builder.like(builder.upper(meta.get("name")), str1.toUpperCase()), value);
-
-				} else if (kv.length == 1 && ! str1.contains("'")) {
-					temp = builder.like(builder.upper(meta.get("name")), str1.toUpperCase());
-
-				} else if (kv.length == 1 && str1.contains("'")) {
-					temp = builder.like(meta.get("value"), str1.replace("%", "\\%").replace("'", ""));
-
-				}
-
-				if(null == p) {
-					p = temp;
-				} else {
-					p = builder.or(p, temp);
-				}
-
-
-			}
-
-
-			sq.select(meta.get("file")).where(p);
-
+			Root <FileSearchDocumentVO> document = sq.from(FileSearchDocumentVO.class);
+			sq.select(document.get("fileId"))
+					.where(MetadataQueryCompiler.compile(criteria.getMetadata(), document, sq, builder));
 			pList.add(builder.in(root.<Long>get("id")).value(sq));
+		}
 
 
-
-		}	
-		
-		
 		if(null != criteria.getText() && !criteria.getText().isEmpty()) {
 
-			pList.add(builder.isTrue(builder.function("fts", Boolean.class, builder.literal(criteria.getText()))));
+			// stored documents, matched through the GIN index
+			Subquery <Long> sq = query.subquery(Long.class);
+			Root <FileSearchDocumentVO> document = sq.from(FileSearchDocumentVO.class);
+			sq.select(document.get("fileId"))
+					.where(builder.isTrue(builder.function("fts_match", Boolean.class,
+							document.get("document"), builder.literal(criteria.getText()))));
+			pList.add(builder.in(root.<Long>get("id")).value(sq));
 		}	
 
 //		pList.add(builder.and(builder.equal(root.<Long> get("user"), criteria.getUserVO())));
 
-		pList.add(builder.or(builder.isTrue(builder.function("arr_search", Boolean.class, builder.literal(criteria.getUserVO().getDlsUser()))),
-				builder.equal(root.<Long> get("user"), criteria.getUserVO())));
+		// a row of the user is in a directory the user may read or of a file the user owns, both found by index
+		// before the rows of the view are built
+		UserVO user = criteria.getUserVO();
+		Subquery <Long> readable = query.subquery(Long.class);
+		Root <PermissionVO> permission = readable.from(PermissionVO.class);
+		readable.select(permission.get("directoryId"))
+				.where(builder.equal(permission.get("permittedUser"), user.getId()),
+						builder.like(permission.get("action"), "%R%"));
+		Subquery <Long> owned = query.subquery(Long.class);
+		Root <FileVO> file = owned.from(FileVO.class);
+		owned.select(file.get("id")).where(builder.equal(file.get("user"), user));
+
+		pList.add(builder.or(builder.isTrue(builder.function("arr_search", Boolean.class, builder.literal(user.getDlsUser()))),
+				builder.and(builder.equal(root.<Long> get("user"), user),
+						builder.or(builder.in(root.<Long> get("directory")).value(readable),
+								builder.in(root.<Long> get("id")).value(owned)))));
 //		query.distinct(true);
 		
 		return builder.and(pList.toArray(new Predicate[0]));
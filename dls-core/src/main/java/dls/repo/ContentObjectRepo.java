@@ -0,0 +1,55 @@
+package dls.repo;
+
+import dls.vo.ContentObjectVO;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface ContentObjectRepo extends JpaRepository<ContentObjectVO, Long> {
+
+	boolean existsByTenantIdAndSha256(Long tenantId, String sha256);
+
+	/**
+	 * Take a reference on the tenant's content with the given digest, creating it at <code>fsPath</code>
+	 * when absent. A returned reference count of 1 means the content is new and must be written.
+	 */
+	@Transactional("transactionManager")
+	@Query(value = "INSERT INTO content_object (id, tenant_id, sha256, fs_path, size_in_byte, ref_count, created_on) " +
+			"VALUES (nextval('hibernate_sequence'), :tenantId, :sha256, :fsPath, :size, 1, now()) " +
+			"ON CONFLICT (tenant_id, sha256) DO UPDATE SET ref_count = content_object.ref_count + 1 RETURNING *",
+			nativeQuery = true)
+	ContentObjectVO acquire(@Param("tenantId") Long tenantId, @Param("sha256") String sha256,
+							@Param("fsPath") String fsPath, @Param("size") Long size);
+
+	/**
+	 * Drop a reference on the content and return the bytes released, its size if it was the last reference
+	 */
+	@Transactional("transactionManager")
+	@Query(value = "UPDATE content_object SET ref_count = ref_count - 1 WHERE id = :id " +
+			"RETURNING CASE WHEN ref_count <= 0 THEN coalesce(size_in_byte, 0) ELSE 0 END", nativeQuery = true)
+	Long decrement(@Param("id") Long id);
+
+	/**
+	 * Remove up to <code>limit</code> contents no file references any more, e.g. released when their last file
+	 * was deleted, and return them so their bytes can be removed
+	 */
+	@Transactional("transactionManager")
+	@Query(value = "DELETE FROM content_object WHERE id IN (SELECT id FROM content_object WHERE ref_count <= 0 " +
+			"LIMIT :limit FOR UPDATE SKIP LOCKED) RETURNING *", nativeQuery = true)
+	List<ContentObjectVO> purgeUnreferenced(@Param("limit") int limit);
+
+	boolean existsByFsPathStartingWith(String prefix);
+
+	/**
+	 * Used storage of a tenant counting each shared content once, plus files stored without deduplication
+	 */
+	@Query(value = "SELECT coalesce((SELECT sum(size_in_byte) FROM content_object WHERE tenant_id = :tenantId " +
+			"AND ref_count > 0), 0) + " +
+			"coalesce((SELECT sum(f.size_in_byte) FROM file f JOIN users u ON f.user_id = u.id AND u.tenant_id = :tenantId " +
+			"WHERE f.deleted = false AND NOT EXISTS (SELECT 1 FROM file_content fc WHERE fc.file_id = f.id)), 0)",
+			nativeQuery = true)
+	Long getUsedStorage(@Param("tenantId") Long tenantId);
+}
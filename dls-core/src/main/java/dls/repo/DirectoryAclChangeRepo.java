@@ -0,0 +1,32 @@
+package dls.repo;
+
+import dls.vo.DirectoryAclChangeVO;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+public interface DirectoryAclChangeRepo extends JpaRepository<DirectoryAclChangeVO, Long> {
+
+	/**
+	 * Changes made by transactions from <code>xmin</code> on, whether they were made by a transaction from the
+	 * xmin of the snapshot they were read with, and that xmin: every change of a transaction below it has been
+	 * read. A row without change carries the xmin when there are none.
+	 */
+	@Query(value = "WITH s AS (SELECT pg_snapshot_xmin(pg_current_snapshot()) AS xmin) " +
+			"SELECT c.id, c.tenant_id, c.directory, coalesce(c.xact_id >= s.xmin, false) AS pending, " +
+			"CAST(s.xmin AS text) AS xmin " +
+			"FROM s LEFT JOIN directory_acl_change c ON c.xact_id >= CAST(:xmin AS xid8) ORDER BY c.id",
+			nativeQuery = true)
+	List<Map<String, Object>> findChanges(@Param("xmin") String xmin);
+
+	@Modifying
+	@Transactional("transactionManager")
+	@Query(value = "DELETE FROM directory_acl_change WHERE changed_on < :before", nativeQuery = true)
+	int deleteChangedBefore(@Param("before") Timestamp before);
+}
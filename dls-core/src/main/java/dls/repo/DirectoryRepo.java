@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.math.BigInteger;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -14,6 +15,14 @@ public interface DirectoryRepo extends JpaRepository<DirectoryVO, Long> {
 	@Query(value = "select id from directory where tenant_id = :tenantId and directory = :directory and deleted != 't'", nativeQuery = true)
 	Long getIdByDirectory(@Param("tenantId") Long tenantId, @Param("directory") String directory);
 
+	/**
+	 * Ids of the directories of the given lower case paths, with the lower case path as <code>directory</code>
+	 */
+	@Query(value = "select id, lower(directory) as directory from directory where tenant_id = :tenantId " +
+			"and deleted = 'f' and lower(directory) in (:directories)", nativeQuery = true)
+	List<Map<String, Object>> findIdsByDirectoriesIgnoreCase(@Param("tenantId") Long tenantId,
+															 @Param("directories") Collection<String> directories);
+
 	DirectoryVO findByDirectoryIgnoreCaseAndDeletedAndTenantId(String directory, Boolean deleted,Long tenantId);
 	DirectoryVO findByDirectoryIgnoreCaseAndCreatedByIdAndDeleted(String directory, Long createdById,Boolean deleted);
 
@@ -44,6 +53,18 @@ public interface DirectoryRepo extends JpaRepository<DirectoryVO, Long> {
 			nativeQuery = true)
 	List<DirectoryVO> getDirectoryNamesByPermittedUser(@Param("directory") String directory, @Param("tenantId") Long tenantId, @Param("loggedInUserId") Long loggedInUserId);
 
+	/**
+	 * Directories under the given one at any depth that the user is permitted on, from the materialized
+	 * <code>tree_path</code>
+	 */
+	@Query(value = "SELECT t1.* from directory a\n" +
+			"INNER JOIN directory t1 ON t1.tree_path <@ a.tree_path AND t1.id <> a.id\n" +
+			"INNER JOIN permission t2 ON t2.directory_id=t1.id\n" +
+			"where (t2.permitted_user = :loggedInUserId or t2.acquired_user @> cast(ARRAY[:loggedInUserId] AS bigint[])) and \n" +
+			"a.id = :id and t1.tenant_id =:tenantId and t1.deleted='f' ",
+			nativeQuery = true)
+	List<DirectoryVO> findPermittedDescendants(@Param("id") Long id, @Param("tenantId") Long tenantId, @Param("loggedInUserId") Long loggedInUserId);
+
 
 	@Query(value = "SELECT directory_id, count(*) FROM file WHERE deleted = :deleted AND user_id = :user AND id NOT IN " +
 			"(SELECT file_id FROM file_meta WHERE user_id = :user AND name = 'dls:internal' OR " +
@@ -2,9 +2,13 @@ package dls.repo;
 
 import dls.exception.DlsValidationException;
 import dls.vo.CatalogVO;
+import dls.vo.UserVO;
 import org.springframework.data.jpa.domain.Specification;
 
 import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
 
 import java.sql.Array;
 import java.sql.JDBCType;
@@ -18,10 +22,29 @@ public class ExplorerViewSpecification{
 
 //    public static final String METADATA_VALUE_PATTERN = "'.*'";
 
+    /**
+     * Rows the user may see, within the user's tenant
+     */
     public static Specification<CatalogVO> hasPermittedUser(Long uid) {
+        return (root, query, cb) -> {
+            Subquery<Long> tenant = query.subquery(Long.class);
+            Root<UserVO> user = tenant.from(UserVO.class);
+            tenant.select(user.get("tenant").get("id")).where(cb.equal(user.get("id"), uid));
+            return cb.and(cb.equal(root.get("tenantId"), tenant), permitted(root, cb, uid));
+        };
+    }
+
+    /**
+     * Rows the user may see, for callers that know the user's tenant
+     */
+    public static Specification<CatalogVO> hasPermittedUser(Long tenantId, Long uid) {
         return (root, query, cb) ->
-//        cb.isNotNull(cb.function("array_position", JDBCType.INTEGER.getDeclaringClass(), root.get("permittedUsers"), cb.literal(uid).as(Long.class)));
-         cb.equal(cb.literal(uid).as(Long.class), cb.function("ANY", Long.class, root.get("permittedUsers")));
+                cb.and(cb.equal(root.get("tenantId"), tenantId), permitted(root, cb, uid));
+    }
+
+    // permitted_users @> ARRAY[uid], unlike uid = ANY(permitted_users) it is answered by the GIN index
+    private static Predicate permitted(Root<CatalogVO> root, CriteriaBuilder cb, Long uid) {
+        return cb.isTrue(cb.function("catalog_permitted", Boolean.class, root.get("permittedUsers"), cb.literal(uid)));
     }
 
     public static Specification<CatalogVO> hasTypeIdIn(List<Long> ids) {
@@ -53,15 +76,131 @@ public class ExplorerViewSpecification{
         return (root, query, cb) ->
                 cb.like(cb.literal("metadata ->> 'key1'"), cb.literal(value));
     }
+    /**
+     * Names matching a regex, with <code>~</code> so the trigram index of <code>catalog.name</code> is used.
+     * The longest literal every match contains is also required with <code>LIKE</code>, which the index answers
+     * even for regexes too complex for its own trigram extraction, if it has at least {@value #MIN_REGEX_LITERAL}
+     * characters. Regexes without such a literal, e.g. <code>\.(csv|tsv)$</code>, are matched by <code>~</code>
+     * alone. Long regexes, back references and nested quantifiers are rejected.
+     */
     public static Specification<CatalogVO> hasNameRegex(String nameRegex) {
         try {
             Pattern.compile(nameRegex);
         } catch (PatternSyntaxException e) {
             throw new DlsValidationException(nameRegex + " is not a valid regex");
         }
-        return (root, query, cb) ->
-                cb.isNotNull(cb.function("regexp_match", String[].class, root.get("name"), cb.literal(nameRegex).as(String.class) ));
-//                cb.concat(root.get( "name ~ "), nameRegex);
+        if(nameRegex.length() > MAX_REGEX_LENGTH) {
+            throw new DlsValidationException("Regex is longer than " + MAX_REGEX_LENGTH + " characters");
+        }
+        if(BACK_REFERENCE.matcher(nameRegex).find() || NESTED_QUANTIFIER.matcher(nameRegex).find()) {
+            throw new DlsValidationException(nameRegex + " is too expensive to search, back references and nested quantifiers are not supported");
+        }
+        String literal = requiredLiteral(nameRegex);
+        return (root, query, cb) -> {
+            Predicate match = cb.isTrue(cb.function("catalog_regex_match", Boolean.class, root.get("name"), cb.literal(nameRegex)));
+            // shorter literals give the index no trigram to look up
+            return (literal.length() < MIN_REGEX_LITERAL) ? match
+                    : cb.and(cb.like(root.get("name"), "%" + escapeLike(literal) + "%", '\\'), match);
+        };
+    }
+
+    /**
+     * Longest run of characters every match of the regex contains. Only the top level of the regex is read:
+     * groups, classes and escapes such as <code>\d</code> end a run, a character made optional by
+     * <code>?</code>, <code>*</code> or <code>{0</code> is dropped from it and alternatives leave nothing.
+     * Classes are read as PostgreSQL reads them: <code>[:alpha:]</code>, <code>[=a=]</code> and
+     * <code>[.-.]</code> inside a class do not close it, any other <code>[</code> inside a class leaves nothing.
+     */
+    static String requiredLiteral(String regex) {
+
+        if(regex.startsWith("(?") || regex.startsWith("***")) return "";
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        boolean inClass = false;
+        for(int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if(inClass) {
+                if(c == '\\') i++;
+                else if(c == '[') {
+                    // character class, equivalence class or collating element, e.g. [[:alpha:]]
+                    if(i + 1 >= regex.length() || ":=.".indexOf(regex.charAt(i + 1)) < 0) return "";
+                    int end = regex.indexOf(regex.charAt(i + 1) + "]", i + 2);
+                    if(end < 0) return "";
+                    i = end + 1;
+                }
+                else if(c == ']') inClass = false;
+                continue;
+            }
+            if(c == '\\' && i + 1 < regex.length()) {
+                char e = regex.charAt(++i);
+                if(depth == 0 && !Character.isLetterOrDigit(e)) {
+                    run.append(e);
+                    if(isOptional(regex, i + 1)) run.setLength(run.length() - 1);
+                    if(isQuantifier(regex, i + 1)) longest = longer(longest, run);
+                } else if(depth == 0) {
+                    longest = longer(longest, run);
+                }
+                continue;
+            }
+            switch (c) {
+                case '[' -> {
+                    inClass = true;
+                    // a leading ] or ^] is part of the class
+                    if(i + 1 < regex.length() && regex.charAt(i + 1) == '^') i++;
+                    if(i + 1 < regex.length() && regex.charAt(i + 1) == ']') i++;
+                    if(depth == 0) longest = longer(longest, run);
+                }
+                case '(' -> {
+                    if(depth++ == 0) longest = longer(longest, run);
+                }
+                case ')' -> depth = Math.max(depth - 1, 0);
+                case '|' -> {
+                    if(depth == 0) return "";
+                }
+                case '{' -> {
+                    // bounds of a quantifier
+                    int end = regex.indexOf('}', i);
+                    if(end > 0) i = end;
+                    if(depth == 0) longest = longer(longest, run);
+                }
+                case '.', '^', '$', '*', '+', '?', '}' -> {
+                    if(depth == 0) longest = longer(longest, run);
+                }
+                default -> {
+                    if(depth > 0) continue;
+                    run.append(c);
+                    if(isOptional(regex, i + 1)) run.setLength(run.length() - 1);
+                    if(isQuantifier(regex, i + 1)) longest = longer(longest, run);
+                }
+            }
+        }
+        return longer(longest, run);
+    }
+
+    private static final int MAX_REGEX_LENGTH = 256;
+    private static final int MIN_REGEX_LITERAL = 3;
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\[1-9]");
+    private static final Pattern NESTED_QUANTIFIER = Pattern.compile("\\([^)]*[*+{][^)]*\\)[*+{]");
+
+    private static boolean isOptional(String regex, int i) {
+        return i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '*'
+                || regex.startsWith("{0", i) || regex.startsWith("{,", i));
+    }
+
+    // a quantified character ends the run, what follows may be repeated or left out
+    private static boolean isQuantifier(String regex, int i) {
+        return i < regex.length() && "?*+{".indexOf(regex.charAt(i)) >= 0;
+    }
+
+    private static String longer(String longest, StringBuilder run) {
+        String candidate = run.toString();
+        run.setLength(0);
+        return candidate.length() > longest.length() ? candidate : longest;
+    }
+
+    private static String escapeLike(String s) {
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
     }
 
     public static Specification<CatalogVO> hasParentLike(String parent) {
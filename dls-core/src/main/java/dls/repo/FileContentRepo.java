@@ -0,0 +1,20 @@
+package dls.repo;
+
+import dls.vo.FileContentVO;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.Map;
+
+public interface FileContentRepo extends JpaRepository<FileContentVO, Long> {
+
+	/**
+	 * Upload status and storage of the other files referencing a content, stored ones first
+	 */
+	@Query(value = "SELECT f.uploaded, f.storage FROM file_content fc JOIN file f ON f.id = fc.file_id " +
+			"WHERE fc.content_id = :contentId AND fc.file_id <> :fileId ORDER BY f.uploaded DESC NULLS LAST LIMIT 1",
+			nativeQuery = true)
+	List<Map<String, Object>> findContentStatus(@Param("contentId") Long contentId, @Param("fileId") Long fileId);
+}
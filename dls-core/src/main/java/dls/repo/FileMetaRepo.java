@@ -7,15 +7,51 @@ import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Map;
 
 public interface FileMetaRepo extends JpaRepository<FileMetaVO, Long>, JpaSpecificationExecutor<FileMetaVO> {
 
+	/**
+	 * Every metadata row of the user, prefer {@link #completeKeys} and {@link #completeValues}
+	 */
 	@Query(nativeQuery = true, value = "SELECT name, value FROM file_meta WHERE user_id = :userId")
 	List <Map<String, String>> findDistinctByUserId(@Param("userId") Long userId);
 
+	/**
+	 * Most used metadata keys of the tenant starting with a prefix, the user's private keys included
+	 * @param prefix lower cased <code>LIKE</code> pattern
+	 * @return <code>text</code> and <code>occurrences</code> of each key
+	 */
+	@Query(nativeQuery = true, value = "SELECT name AS text, sum(occurrences) AS occurrences FROM meta_key_completion " +
+			"WHERE tenant_id = :tenantId AND private_user IN (0, :userId) AND lower(name) LIKE :prefix AND occurrences > 0 " +
+			"GROUP BY name ORDER BY 2 DESC, 1 LIMIT :limit")
+	List <Map<String, Object>> completeKeys(@Param("tenantId") Long tenantId, @Param("userId") Long userId,
+											@Param("prefix") String prefix, @Param("limit") int limit);
+
+	/**
+	 * Most used values of a metadata key of the tenant starting with a prefix, the user's private values included
+	 * @param prefix lower cased <code>LIKE</code> pattern
+	 * @return <code>text</code> and <code>occurrences</code> of each value
+	 */
+	@Query(nativeQuery = true, value = "SELECT value AS text, sum(occurrences) AS occurrences FROM meta_value_completion " +
+			"WHERE tenant_id = :tenantId AND private_user IN (0, :userId) AND lower(name) = lower(:name) " +
+			"AND lower(value) LIKE :prefix AND occurrences > 0 GROUP BY value ORDER BY 2 DESC, 1 LIMIT :limit")
+	List <Map<String, Object>> completeValues(@Param("tenantId") Long tenantId, @Param("userId") Long userId,
+											  @Param("name") String name, @Param("prefix") String prefix,
+											  @Param("limit") int limit);
+
+	/**
+	 * Add up to <code>limit</code> metadata changes to the completions, changes another DLS instance adds are
+	 * skipped
+	 * @return number of changes added
+	 */
+	@Transactional("transactionManager")
+	@Query(nativeQuery = true, value = "SELECT func_meta_completion_fold(:limit)")
+	Integer foldCompletions(@Param("limit") int limit);
+
 //	List <FileMetaVO> findDistinctByNameAndValue(@Param("name") String name, @Param("value") String value);
 	@Modifying
 	@Query("delete from file_meta b where id in :ids")
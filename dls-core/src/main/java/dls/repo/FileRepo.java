@@ -4,8 +4,10 @@ import dls.vo.FileVO;
 import dls.vo.UserVO;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -27,6 +29,15 @@ public interface FileRepo extends JpaRepository<FileVO, Long> , JpaSpecification
 //	Optional<FileVO> findByIdAndStorage(Long id, String storage);
 	Optional<FileVO> findByFsPathAndStorage(String fsPath, String storage);
 
+	/**
+	 * A file of the given storage whose bytes are the content stored at <code>fsPath</code>, see
+	 * {@link dls.service.ContentStore}
+	 */
+	@Query(value = "SELECT f.* FROM content_object c JOIN file_content fc ON fc.content_id = c.id " +
+			"JOIN file f ON f.id = fc.file_id WHERE c.fs_path = :fsPath AND f.storage = :storage " +
+			"ORDER BY f.deleted NULLS FIRST LIMIT 1", nativeQuery = true)
+	Optional<FileVO> findByContentPathAndStorage(@Param("fsPath") String fsPath, @Param("storage") String storage);
+
 	@Query(value = "select * from file where user_id = :userId and fs_path like :fsPath  order by created_on",
 			nativeQuery = true)
 	List <FileVO> getArchiveList(@Param("userId") Long userId, @Param("fsPath") String fsPath);
@@ -35,6 +46,23 @@ public interface FileRepo extends JpaRepository<FileVO, Long> , JpaSpecification
 			nativeQuery = true)
 	Long getUsedStorage(@Param("tenandId") Long tenantId);
 
+	/**
+	 * Record the progress of an upload, a {@link dls.bean.DlsFileStatus.UploadStatus} and the bytes stored so far,
+	 * without loading the file
+	 */
+	@Modifying
+	@Transactional("transactionManager")
+	@Query(value = "UPDATE file SET upload_status = :status, bytes_transferred = :bytes WHERE id = :id", nativeQuery = true)
+	int updateUploadStatus(@Param("id") Long id, @Param("status") String status, @Param("bytes") Long bytesTransferred);
+
+	/**
+	 * Mark a file deleted without loading it, e.g. a file whose bytes could not be stored
+	 */
+	@Modifying
+	@Transactional("transactionManager")
+	@Query(value = "UPDATE file SET deleted = true WHERE id = :id", nativeQuery = true)
+	int markDeleted(@Param("id") Long id);
+
 	FileVO findByFsPathAndDeleted(String fsPath, boolean deleted);
 
 	FileVO findByUserAndFsPathAndDeleted(UserVO user, String fsPath, boolean deleted);
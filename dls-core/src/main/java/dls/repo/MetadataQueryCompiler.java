@@ -0,0 +1,238 @@
+package dls.repo;
+
+import com.google.common.collect.Lists;
+import dls.exception.DlsValidationException;
+import dls.vo.FileMetaVO;
+import dls.vo.FileSearchDocumentVO;
+import jakarta.persistence.criteria.*;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Compiles a metadata query of a catalog search into a predicate on the stored metadata of files.
+ * <p>
+ * Terms are <code>K</code>, <code>'V'</code> and <code>K op 'V'</code>. <code>&amp;</code> joins terms that must
+ * all match and binds tighter than <code>,</code>, which joins alternatives, so <code>c1 &amp; c2, c3</code> is
+ * <code>(c1 AND c2) OR c3</code>. Parentheses group terms. Names match ignoring case, <code>*</code> is a wildcard
+ * in names and values.
+ * <p>
+ * Terms without wildcards are answered from the GIN indexes of {@link FileSearchDocumentVO}: key existence with
+ * <code>?</code>, a name and value with <code>@&gt;</code> and a value alone by array containment. Wildcards fall
+ * back to <code>LIKE</code> on <code>file_meta</code> and numeric comparisons use its
+ * <code>(upper(name), value_numeric)</code> index.
+ */
+public class MetadataQueryCompiler {
+
+	private enum Kind { NAME, VALUE, OPERATOR, AND, OR, OPEN, CLOSE }
+
+	private record Token(Kind kind, String text) {}
+
+	private final List<Token> tokens;
+	private final Root<FileSearchDocumentVO> document;
+	private final AbstractQuery<?> query;
+	private final CriteriaBuilder cb;
+	private int pos;
+
+	private MetadataQueryCompiler(String metadata, Root<FileSearchDocumentVO> document, AbstractQuery<?> query,
+								  CriteriaBuilder cb) {
+		this.tokens = tokenize(metadata);
+		this.document = document;
+		this.query = query;
+		this.cb = cb;
+	}
+
+	/**
+	 * @param document stored metadata of the files searched
+	 * @param query the query selecting from <code>document</code>, for subqueries on <code>file_meta</code>
+	 */
+	public static Predicate compile(String metadata, Root<FileSearchDocumentVO> document, AbstractQuery<?> query,
+									CriteriaBuilder cb) {
+
+		MetadataQueryCompiler compiler = new MetadataQueryCompiler(metadata, document, query, cb);
+		if(compiler.tokens.isEmpty()) {
+			throw new DlsValidationException("query.invalid.metadata");
+		}
+		Predicate predicate = compiler.or();
+		if(compiler.pos < compiler.tokens.size()) {
+			throw new DlsValidationException("query.invalid.metadata");
+		}
+		return predicate;
+	}
+
+	private Predicate or() {
+
+		Predicate predicate = and();
+		while(pos < tokens.size() && peek() != Kind.CLOSE) {
+			// terms next to each other without a separator are alternatives
+			if(peek() == Kind.OR) pos++;
+			predicate = cb.or(predicate, and());
+		}
+		return predicate;
+	}
+
+	private Predicate and() {
+
+		Predicate predicate = primary();
+		while(pos < tokens.size() && peek() == Kind.AND) {
+			pos++;
+			predicate = cb.and(predicate, primary());
+		}
+		return predicate;
+	}
+
+	private Predicate primary() {
+
+		Token token = next();
+		switch (token.kind()) {
+			case OPEN -> {
+				Predicate predicate = or();
+				if(next().kind() != Kind.CLOSE) {
+					throw new DlsValidationException("query.invalid.metadata");
+				}
+				return predicate;
+			}
+			case VALUE -> {
+				return value(token.text());
+			}
+			case NAME -> {
+				if(pos < tokens.size() && peek() == Kind.OPERATOR) {
+					String operator = next().text();
+					Token value = next();
+					if(value.kind() != Kind.VALUE) {
+						throw new DlsValidationException("query.invalid.metadata");
+					}
+					return compare(token.text(), operator, value.text());
+				}
+				return name(token.text());
+			}
+			default -> throw new DlsValidationException("query.invalid.metadata");
+		}
+	}
+
+	private Predicate name(String name) {
+
+		if(isWildcard(name)) {
+			return exists(meta -> nameMatches(meta, name));
+		}
+		return hasKey(name);
+	}
+
+	private Predicate value(String value) {
+
+		if(isWildcard(value)) {
+			return exists(meta -> cb.like(meta.get("value"), toLike(value), '\\'));
+		}
+		return cb.isTrue(cb.function("meta_has_value", Boolean.class, document.get("metaValues"), cb.literal(value)));
+	}
+
+	private Predicate compare(String name, String operator, String value) {
+
+		if("=".equals(operator)) {
+			if(!isWildcard(name) && !isWildcard(value)) {
+				return cb.isTrue(cb.function("meta_contains", Boolean.class, document.get("metadata"),
+						cb.literal(name.toLowerCase(Locale.ROOT)), cb.literal(value)));
+			}
+			Predicate match = exists(meta -> cb.and(nameMatches(meta, name), isWildcard(value)
+					? cb.like(meta.get("value"), toLike(value), '\\')
+					: cb.equal(meta.get("value"), value)));
+			return isWildcard(name) ? match : cb.and(hasKey(name), match);
+		}
+
+		try {
+			Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new DlsValidationException("Invalid non-numeric value used with logical operator");
+		}
+		Predicate match = exists(meta -> cb.and(nameMatches(meta, name), switch (operator) {
+			case ">=" -> cb.greaterThanOrEqualTo(meta.get("value_numeric"), value);
+			case "<=" -> cb.lessThanOrEqualTo(meta.get("value_numeric"), value);
+			case ">" -> cb.greaterThan(meta.get("value_numeric"), value);
+			case "<" -> cb.lessThan(meta.get("value_numeric"), value);
+			case "!=" -> cb.notEqual(meta.get("value_numeric"), value);
+			default -> throw new DlsValidationException("query.invalid.metadata");
+		}));
+		return isWildcard(name) ? match : cb.and(hasKey(name), match);
+	}
+
+	private Predicate hasKey(String name) {
+		return cb.isTrue(cb.function("meta_has_key", Boolean.class, document.get("metadata"),
+				cb.literal(name.toLowerCase(Locale.ROOT))));
+	}
+
+	private Predicate nameMatches(Root<FileMetaVO> meta, String name) {
+
+		Expression<String> upper = cb.upper(meta.get("name"));
+		return isWildcard(name)
+				? cb.like(upper, toLike(name).toUpperCase(Locale.ROOT), '\\')
+				: cb.equal(upper, name.toUpperCase(Locale.ROOT));
+	}
+
+	private Predicate exists(Function<Root<FileMetaVO>, Predicate> condition) {
+
+		Subquery<Integer> sq = query.subquery(Integer.class);
+		Root<FileMetaVO> meta = sq.from(FileMetaVO.class);
+		sq.select(cb.literal(1)).where(cb.equal(meta.get("file").get("id"), document.get("fileId")), condition.apply(meta));
+		return cb.exists(sq);
+	}
+
+	private static boolean isWildcard(String s) {
+		return s.indexOf('*') >= 0;
+	}
+
+	private static String toLike(String s) {
+		return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_").replace('*', '%');
+	}
+
+	private Kind peek() {
+		return tokens.get(pos).kind();
+	}
+
+	private Token next() {
+
+		if(pos >= tokens.size()) {
+			throw new DlsValidationException("query.invalid.metadata");
+		}
+		return tokens.get(pos++);
+	}
+
+	private static List<Token> tokenize(String metadata) {
+
+		List<Token> tokens = Lists.newArrayList();
+		int i = 0;
+		while(i < metadata.length()) {
+			char c = metadata.charAt(i);
+			if(Character.isWhitespace(c)) {
+				i++;
+			} else if(c == '(' || c == ')' || c == ',' || c == '&') {
+				tokens.add(new Token(switch (c) {
+					case '(' -> Kind.OPEN;
+					case ')' -> Kind.CLOSE;
+					case ',' -> Kind.OR;
+					default -> Kind.AND;
+				}, String.valueOf(c)));
+				i++;
+			} else if(c == '\'') {
+				int end = metadata.indexOf('\'', i + 1);
+				if(end < 0) {
+					throw new DlsValidationException("query.invalid.metadata");
+				}
+				tokens.add(new Token(Kind.VALUE, metadata.substring(i + 1, end)));
+				i = end + 1;
+			} else if(c == '=' || c == '<' || c == '>' || c == '!') {
+				int end = i + 1;
+				if(end < metadata.length() && metadata.charAt(end) == '=' && c != '=') end++;
+				tokens.add(new Token(Kind.OPERATOR, metadata.substring(i, end)));
+				i = end;
+			} else {
+				int end = i;
+				while(end < metadata.length() && "()&,'=<>!".indexOf(metadata.charAt(end)) < 0
+						&& !Character.isWhitespace(metadata.charAt(end))) end++;
+				tokens.add(new Token(Kind.NAME, metadata.substring(i, end)));
+				i = end;
+			}
+		}
+		return tokens;
+	}
+}
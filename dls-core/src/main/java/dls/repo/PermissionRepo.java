@@ -8,7 +8,9 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface PermissionRepo extends JpaRepository<PermissionVO, Long> {
 	
@@ -35,6 +37,26 @@ public interface PermissionRepo extends JpaRepository<PermissionVO, Long> {
 			nativeQuery = true)
 	Long checkPermission(@Param("user") Long user, @Param("directory") String directory, @Param("action") String action);
 
+	/**
+	 * Permissions of the directories of a tenant, for {@link dls.service.DirectoryAclIndex}
+	 */
+	@Query(value = "select D.id as directory_id, D.directory, coalesce(D.deleted = 't', false) as deleted, " +
+			"P.permitted_user, array_to_string(P.acquired_user, ',') as acquired_user, P.action " +
+			"from permission P join directory D on P.directory_id = D.id where D.tenant_id = :tenantId",
+			nativeQuery = true)
+	List<Map<String, Object>> findAclByTenantId(@Param("tenantId") Long tenantId);
+
+	/**
+	 * Permissions of the directories of a tenant with the given paths, for {@link dls.service.DirectoryAclIndex}
+	 */
+	@Query(value = "select D.id as directory_id, D.directory, coalesce(D.deleted = 't', false) as deleted, " +
+			"P.permitted_user, array_to_string(P.acquired_user, ',') as acquired_user, P.action " +
+			"from permission P join directory D on P.directory_id = D.id " +
+			"where D.tenant_id = :tenantId and D.directory in (:directories)",
+			nativeQuery = true)
+	List<Map<String, Object>> findAclByTenantIdAndDirectoryIn(@Param("tenantId") Long tenantId,
+															  @Param("directories") Collection<String> directories);
+
 	@SQLDelete(sql = "delete from permission where id = :id")
 	void deleteById(@Param("id") Long id);
 }
@@ -0,0 +1,60 @@
+package dls.repo;
+
+import dls.vo.StorageJobVO;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+
+public interface StorageJobRepo extends JpaRepository<StorageJobVO, Long> {
+
+	/**
+	 * Atomically mark up to <code>limit</code> due jobs of a backend as running and return them. Only jobs
+	 * spooled by the given node, or to a shared spool, are claimed. Rows locked by another DLS instance are
+	 * skipped, so each job is claimed once. Not <code>@Modifying</code>: the statement runs as a query so that
+	 * the rows of <code>RETURNING</code> are read, in a transaction of its own.
+	 */
+	@Transactional("transactionManager")
+	@Query(value = "UPDATE storage_job SET status = 'RUNNING', started_on = now(), heartbeat_on = now(), " +
+			"attempts = attempts + 1 " +
+			"WHERE id IN (SELECT id FROM storage_job WHERE status = 'PENDING' AND storage = :storage " +
+			"AND (node = :node OR node IS NULL) " +
+			"AND next_attempt_on <= now() ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED) RETURNING *",
+			nativeQuery = true)
+	List<StorageJobVO> claimDueJobs(@Param("storage") String storage, @Param("node") String node,
+									@Param("limit") int limit);
+
+	/**
+	 * Renew the lease of jobs still running
+	 */
+	@Modifying
+	@Transactional("transactionManager")
+	@Query(value = "UPDATE storage_job SET heartbeat_on = now() WHERE id IN :ids AND status = 'RUNNING'",
+			nativeQuery = true)
+	int heartbeat(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Return jobs whose lease was not renewed since <code>before</code>, left by a worker or an instance that went
+	 * away, to the queue
+	 */
+	@Modifying
+	@Transactional("transactionManager")
+	@Query(value = "UPDATE storage_job SET status = 'PENDING', next_attempt_on = now() " +
+			"WHERE status = 'RUNNING' AND coalesce(heartbeat_on, started_on) < :before", nativeQuery = true)
+	int requeueStale(@Param("before") Timestamp before);
+
+	/**
+	 * Jobs that failed for good before <code>before</code> whose spool this node can reach
+	 */
+	@Query(value = "SELECT * FROM storage_job WHERE status = 'FAILED' AND (node = :node OR node IS NULL) " +
+			"AND next_attempt_on < :before ORDER BY id LIMIT :limit", nativeQuery = true)
+	List<StorageJobVO> findFailedBefore(@Param("node") String node, @Param("before") Timestamp before,
+										@Param("limit") int limit);
+
+	long countByStatus(String status);
+}
@@ -0,0 +1,32 @@
+package dls.repo;
+
+import dls.vo.TenantCatalogChangeVO;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+public interface TenantCatalogChangeRepo extends JpaRepository<TenantCatalogChangeVO, Long> {
+
+	/**
+	 * Number of changes of each tenant made by transactions from <code>xmin</code> on, of them the number made
+	 * by transactions from the xmin of the snapshot they were read with, and that xmin: every change of a
+	 * transaction below it has been read. A row without tenant carries the xmin when there are no changes.
+	 */
+	@Query(value = "WITH s AS (SELECT pg_snapshot_xmin(pg_current_snapshot()) AS xmin) " +
+			"SELECT c.tenant_id, count(c.id) AS changes, count(c.id) FILTER (WHERE c.xact_id >= s.xmin) AS pending, " +
+			"CAST(s.xmin AS text) AS xmin " +
+			"FROM s LEFT JOIN tenant_catalog_change c ON c.xact_id >= CAST(:xmin AS xid8) " +
+			"GROUP BY c.tenant_id, s.xmin", nativeQuery = true)
+	List<Map<String, Object>> findChanges(@Param("xmin") String xmin);
+
+	@Modifying
+	@Transactional("transactionManager")
+	@Query(value = "DELETE FROM tenant_catalog_change WHERE changed_on < :before", nativeQuery = true)
+	int deleteChangedBefore(@Param("before") Timestamp before);
+}
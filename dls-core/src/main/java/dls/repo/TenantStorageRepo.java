@@ -0,0 +1,93 @@
+package dls.repo;
+
+import dls.vo.TenantStorageVO;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+
+public interface TenantStorageRepo extends JpaRepository<TenantStorageVO, Long> {
+
+	@Modifying
+	@Transactional(value = "transactionManager", propagation = Propagation.REQUIRES_NEW)
+	@Query(value = "INSERT INTO tenant_storage (tenant_id, used_bytes, reserved_bytes, reconciled_on) " +
+			"VALUES (:tenantId, :used, 0, now()) ON CONFLICT (tenant_id) DO NOTHING", nativeQuery = true)
+	int initialize(@Param("tenantId") Long tenantId, @Param("used") Long used);
+
+	/**
+	 * Reserve storage if the tenant's used and reserved storage stays within <code>allocated</code>.
+	 * Committed on its own so concurrent uploads see the reservation at once.
+	 * @return id of the reservation, null if the storage is not available
+	 */
+	@Transactional(value = "transactionManager", propagation = Propagation.REQUIRES_NEW)
+	@Query(value = "WITH t AS (UPDATE tenant_storage SET reserved_bytes = reserved_bytes + :size " +
+			"WHERE tenant_id = :tenantId AND used_bytes + reserved_bytes + :size <= :allocated RETURNING tenant_id) " +
+			"INSERT INTO storage_reservation (id, tenant_id, size_in_byte, created_on) " +
+			"SELECT nextval('hibernate_sequence'), tenant_id, :size, now() FROM t RETURNING id",
+			nativeQuery = true)
+	Long reserve(@Param("tenantId") Long tenantId, @Param("size") Long size, @Param("allocated") Long allocated);
+
+	/**
+	 * Turn a reservation into used storage, in the transaction that stores the file
+	 */
+	@Modifying
+	@Transactional("transactionManager")
+	@Query(value = "WITH r AS (DELETE FROM storage_reservation WHERE id = :reservationId RETURNING size_in_byte) " +
+			"UPDATE tenant_storage SET used_bytes = used_bytes + :delta, " +
+			"reserved_bytes = reserved_bytes - coalesce((SELECT sum(size_in_byte) FROM r), 0) WHERE tenant_id = :tenantId",
+			nativeQuery = true)
+	int complete(@Param("reservationId") Long reservationId, @Param("tenantId") Long tenantId, @Param("delta") Long delta);
+
+	/**
+	 * Drop a reservation of a failed upload, committed even though the upload rolls back
+	 */
+	@Modifying
+	@Transactional(value = "transactionManager", propagation = Propagation.REQUIRES_NEW)
+	@Query(value = "WITH r AS (DELETE FROM storage_reservation WHERE id = :reservationId RETURNING tenant_id, size_in_byte) " +
+			"UPDATE tenant_storage t SET reserved_bytes = t.reserved_bytes - r.size_in_byte FROM r WHERE t.tenant_id = r.tenant_id",
+			nativeQuery = true)
+	int cancel(@Param("reservationId") Long reservationId);
+
+	@Modifying
+	@Transactional("transactionManager")
+	@Query(value = "UPDATE tenant_storage SET used_bytes = greatest(used_bytes + :delta, 0) WHERE tenant_id = :tenantId",
+			nativeQuery = true)
+	int adjust(@Param("tenantId") Long tenantId, @Param("delta") Long delta);
+
+	@Modifying
+	@Transactional("transactionManager")
+	@Query(value = "DELETE FROM storage_reservation WHERE created_on < :before", nativeQuery = true)
+	int expireReservations(@Param("before") Timestamp before);
+
+	/**
+	 * Take the lock for reconciling the counters of a tenant until the transaction ends, false if another DLS
+	 * instance holds it
+	 */
+	@Transactional("transactionManager")
+	@Query(value = "SELECT pg_try_advisory_xact_lock(hashtext('tenant_storage'), hashtext(CAST(:tenantId AS text)))",
+			nativeQuery = true)
+	boolean tryReconcileLock(@Param("tenantId") Long tenantId);
+
+	/**
+	 * Lock the counters of a tenant until the transaction ends, uploads completing meanwhile wait for it
+	 * @return the used storage counted so far, null if the tenant has no counters
+	 */
+	@Transactional("transactionManager")
+	@Query(value = "SELECT used_bytes FROM tenant_storage WHERE tenant_id = :tenantId FOR UPDATE", nativeQuery = true)
+	Long lockUsedBytes(@Param("tenantId") Long tenantId);
+
+	/**
+	 * Replace the counters of a tenant with the recomputed usage and its live reservations, see
+	 * {@link #lockUsedBytes(Long)}
+	 */
+	@Modifying
+	@Transactional("transactionManager")
+	@Query(value = "UPDATE tenant_storage t SET used_bytes = :used, reconciled_on = now(), " +
+			"reserved_bytes = coalesce((SELECT sum(size_in_byte) FROM storage_reservation r WHERE r.tenant_id = t.tenant_id), 0) " +
+			"WHERE t.tenant_id = :tenantId", nativeQuery = true)
+	int reconcile(@Param("tenantId") Long tenantId, @Param("used") Long used);
+}
@@ -7,7 +7,9 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface UserRepo extends JpaRepository<UserVO, Long> {
 
@@ -32,6 +34,13 @@ public interface UserRepo extends JpaRepository<UserVO, Long> {
 	@Cacheable("userName")
 	@Query(value = "SELECT id FROM users WHERE tenant_id = :tenantId AND dls_user = :dlsUser", nativeQuery = true)
 	Long getDlsUserByName(@Param("tenantId") Long tenantId, @Param("dlsUser") String dlsUser);
+
+	@Query(value = "SELECT id, dls_user FROM users WHERE tenant_id = :tenantId AND id IN (:ids)", nativeQuery = true)
+	List<Map<String, Object>> findDlsUsersByIds(@Param("tenantId") Long tenantId, @Param("ids") Collection<Long> ids);
+
+	@Query(value = "SELECT id, dls_user FROM users WHERE tenant_id = :tenantId AND dls_user IN (:dlsUsers)", nativeQuery = true)
+	List<Map<String, Object>> findIdsByDlsUsers(@Param("tenantId") Long tenantId, @Param("dlsUsers") Collection<String> dlsUsers);
+
 	@Query(value = "select id from users where org_position && string_to_array(:orgPos, ',') and admin = 't' and tenant_id = :tenantId",
 			nativeQuery = true)
 	List <Long> findAdminsContainingOrgPos(@Param("tenantId") Long tenantId, @Param("orgPos") String  orgPos);
@@ -0,0 +1,32 @@
+package dls.repo;
+
+import dls.vo.UserStatisticsVO;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface UserStatisticsRepo extends JpaRepository<UserStatisticsVO, Long> {
+
+	@Query(value = "SELECT id FROM users ORDER BY id", nativeQuery = true)
+	List<Long> findAllUserIds();
+
+	/**
+	 * Recompute the statistics of users from their files
+	 * @return number of users recomputed
+	 */
+	@Transactional("transactionManager")
+	@Query(value = "SELECT func_user_statistics_rebuild(CAST(ARRAY[:userIds] AS bigint[]))", nativeQuery = true)
+	Integer rebuild(@Param("userIds") List<Long> userIds);
+
+	/**
+	 * Recompute the statistics of up to <code>limit</code> stale users, skipping users another DLS instance
+	 * recomputes
+	 * @return number of users recomputed
+	 */
+	@Transactional("transactionManager")
+	@Query(value = "SELECT func_user_statistics_rebuild_stale(:limit)", nativeQuery = true)
+	Integer rebuildStale(@Param("limit") int limit);
+}
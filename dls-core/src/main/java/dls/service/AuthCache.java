@@ -0,0 +1,155 @@
+package dls.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import dls.vo.TenantVO;
+import dls.vo.UserVO;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Tenants by API key and users by API key and DLS key, for {@link UserService#authenticate} and
+ * {@link UserService#authorize}.
+ * <p>
+ * At most <code>dls.auth.cache.size</code> entries of each are kept, none for longer than
+ * <code>dls.auth.cache.ttl.ms</code> so changes made through another DLS instance are seen. Keys that were
+ * rejected are remembered for <code>dls.auth.cache.negative.ttl.ms</code>, so repeated bad keys do not reach
+ * the database. Changes to users and tenants drop their entries at once and again after commit, so a
+ * concurrent lookup cannot put back what the change replaced.
+ */
+@Slf4j
+@Component
+public class AuthCache {
+
+	@Value("${dls.auth.cache.size:10000}")
+	private long maximumSize;
+	@Value("${dls.auth.cache.ttl.ms:60000}")
+	private long ttlMillis;
+	@Value("${dls.auth.cache.negative.ttl.ms:10000}")
+	private long negativeTtlMillis;
+
+	private record UserKey(String apiKey, String dlsKey) {}
+
+	private Cache<String, TenantVO> tenants;
+	private Cache<UserKey, UserVO> users;
+	private Cache<Object, Boolean> rejected;
+
+	@PostConstruct
+	void init() {
+		tenants = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+		users = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+		rejected = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(negativeTtlMillis, TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+	}
+
+	public TenantVO getTenant(String apiKey) {
+		return tenants.getIfPresent(apiKey);
+	}
+
+	public void putTenant(String apiKey, TenantVO tenant) {
+		tenants.put(apiKey, tenant);
+	}
+
+	public UserVO getUser(String apiKey, String dlsKey) {
+		return users.getIfPresent(new UserKey(apiKey, dlsKey));
+	}
+
+	public void putUser(String apiKey, String dlsKey, UserVO user) {
+		users.put(new UserKey(apiKey, dlsKey), user);
+	}
+
+	public boolean isRejected(String apiKey) {
+		return null != rejected.getIfPresent(apiKey);
+	}
+
+	public boolean isRejected(String apiKey, String dlsKey) {
+		return null != rejected.getIfPresent(new UserKey(apiKey, dlsKey));
+	}
+
+	public void reject(String apiKey) {
+		rejected.put(apiKey, Boolean.TRUE);
+	}
+
+	public void reject(String apiKey, String dlsKey) {
+		rejected.put(new UserKey(apiKey, dlsKey), Boolean.TRUE);
+	}
+
+	/**
+	 * Drop a user, e.g. deleted or with changed roles
+	 */
+	public void invalidateUser(Long userId) {
+		invalidate(() -> users.asMap().values().removeIf(u -> Objects.equals(u.getId(), userId)));
+	}
+
+	/**
+	 * Drop a tenant and all its users, e.g. deleted or changed
+	 */
+	public void invalidateTenant(Long tenantId) {
+		invalidate(() -> {
+			Predicate<TenantVO> ofTenant = t -> null != t && Objects.equals(t.getId(), tenantId);
+			tenants.asMap().values().removeIf(ofTenant);
+			users.asMap().values().removeIf(u -> ofTenant.test(u.getTenant()));
+		});
+	}
+
+	/**
+	 * Forget rejected keys, e.g. once new users or tenants are created with them
+	 */
+	public void invalidateRejected() {
+		invalidate(rejected::invalidateAll);
+	}
+
+	public CacheStats tenantStats() {
+		return tenants.stats();
+	}
+
+	public CacheStats userStats() {
+		return users.stats();
+	}
+
+	public CacheStats rejectedStats() {
+		return rejected.stats();
+	}
+
+	@Scheduled(fixedDelayString = "${dls.auth.cache.stats.ms:600000}", initialDelay = 600000)
+	public void logStats() {
+
+		log.info("Auth cache: tenants hit rate {} of {} lookups, users hit rate {} of {} lookups, {} rejected keys",
+				String.format("%.2f", tenants.stats().hitRate()), tenants.stats().requestCount(),
+				String.format("%.2f", users.stats().hitRate()), users.stats().requestCount(), rejected.size());
+	}
+
+	private static void invalidate(Runnable drop) {
+
+		drop.run();
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					drop.run();
+				}
+			});
+		}
+	}
+}
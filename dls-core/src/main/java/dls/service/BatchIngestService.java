@@ -0,0 +1,363 @@
+package dls.service;
+
+import com.google.common.collect.Lists;
+import dls.bean.DlsResponse;
+import dls.bean.FileDescriptor;
+import dls.exception.DlsNotFoundException;
+import dls.exception.DlsPrivacyException;
+import dls.exception.DlsSecurityException;
+import dls.exception.DlsValidationException;
+import dls.repo.CommentRepo;
+import dls.repo.FileMetaRepo;
+import dls.repo.FileRepo;
+import dls.vo.*;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static dls.bean.FileDescriptor.UploadMode.RESTRICT;
+import static dls.service.FileServiceHelper.DLS_LINEAGE;
+
+/**
+ * Ingest of many files in one request.
+ * <p>
+ * New files are validated up front, storage is reserved for each of them and their rows are inserted with JDBC
+ * batching, one transaction per batch of <code>dls.ingest.batch.size</code> files. If a batch fails its files
+ * are retried one by one so a single bad file does not fail the others. The bytes are then written to storage
+ * in parallel, each file in a transaction of its own. A file whose bytes cannot be written is marked deleted and
+ * its reservation given back. Overwrite, append and archive go through {@link FileServiceHelper} one at a time.
+ */
+@Slf4j
+@Service
+public class BatchIngestService {
+
+	@Autowired private FileServiceHelper fileServiceHelper;
+	@Autowired private UserService uservice;
+	@Autowired private DlsServiceHelper dhelper;
+	@Autowired private FileRepo fileRepo;
+	@Autowired private FileMetaRepo fileMetaRepo;
+	@Autowired private CommentRepo commentRepo;
+	@Autowired private ContentStore contentStore;
+	@Autowired private StorageQuotaService storageQuota;
+	@Autowired private StorageWriteQueue writeQueue;
+	@Autowired private CatalogResultCache catalogCache;
+	@Autowired private PlatformTransactionManager transactionManager;
+	@PersistenceContext private EntityManager em;
+	@Autowired private Environment ev;
+
+	@Value("${dls.ingest.batch.size:500}")
+	private int batchSize;
+	@Value("${dls.ingest.write.parallelism:8}")
+	private int writeParallelism;
+
+	public record Upload(FileDescriptor descriptor, MultipartFile file) {}
+
+	private static class Staged {
+		final int index;
+		final Upload upload;
+		final FileVO vo;
+		final List<FileMetaVO> meta;
+		final String digest;
+		final String originalFileName;
+		/** storage reserved for the file, null once completed or cancelled */
+		Long reservation;
+
+		Staged(int index, Upload upload, FileVO vo, List<FileMetaVO> meta, String digest, String originalFileName) {
+			this.index = index;
+			this.upload = upload;
+			this.vo = vo;
+			this.meta = meta;
+			this.digest = digest;
+			this.originalFileName = originalFileName;
+		}
+	}
+
+	/**
+	 * Upload of many files, <code>POST /files</code>: the n-th descriptor describes the n-th file
+	 *
+	 * @return status of each upload, in the order of the request
+	 */
+	public List<DlsResponse> upload(String apiKey, String dlsKey, List<FileDescriptor> descriptors,
+									List<MultipartFile> files) throws DlsSecurityException, DlsPrivacyException {
+
+		UserVO user = uservice.authorize(apiKey, dlsKey);
+		if(descriptors.size() != files.size()) {
+			throw new DlsValidationException("Number of descriptors and files differ");
+		}
+		return ingest(IntStream.range(0, files.size())
+				.mapToObj(i -> new Upload(descriptors.get(i), files.get(i)))
+				.toList(), user);
+	}
+
+	/**
+	 * @return status of each upload, in the order of the request
+	 */
+	public List<DlsResponse> ingest(List<Upload> uploads, UserVO user) {
+
+		DlsResponse[] result = new DlsResponse[uploads.size()];
+		List<Integer> single = Lists.newArrayList();
+		List<Staged> staged = Lists.newArrayList();
+		Set<String> paths = new HashSet<>();
+		TenantVO tenant = user.getTenant();
+		writeQueue.checkCapacity();
+
+		for(int i = 0; i < uploads.size(); i++) {
+			Upload upload = uploads.get(i);
+			try {
+				if(mode(upload.descriptor()) != RESTRICT) {
+					single.add(i);
+					continue;
+				}
+				Staged s = stage(i, upload, user);
+				if(!paths.add(s.vo.getFsPath())) {
+					throw new DataIntegrityViolationException("already.exists");
+				}
+				staged.add(s);
+			} catch (Exception e) {
+				result[i] = failure(upload.descriptor(), e);
+			}
+		}
+
+		if(!paths.isEmpty()) {
+			Set<String> existing = fileRepo.findByFsPathIn(Lists.newArrayList(paths)).stream()
+					.filter(f -> !Optional.ofNullable(f.getDeleted()).orElse(Boolean.FALSE))
+					.map(FileVO::getFsPath)
+					.collect(Collectors.toSet());
+			staged.removeIf(s -> {
+				if(existing.contains(s.vo.getFsPath())) {
+					result[s.index] = failure(s.upload.descriptor(), new DataIntegrityViolationException("already.exists"));
+					return true;
+				}
+				return false;
+			});
+		}
+
+		if(!staged.isEmpty()) {
+			ingestNew(staged, tenant, user, result);
+		}
+
+		single.forEach(i -> {
+			FileDescriptor d = uploads.get(i).descriptor();
+			try {
+				String fsPath = fileServiceHelper.saveAndUpload(d.getFilename(), d.getSavepoint(), uploads.get(i).file(),
+						mode(d), d.getDirectory(), d.getMetadata(), user, d.getComment());
+				result[i] = accepted(d, fsPath);
+			} catch (Exception e) {
+				result[i] = failure(d, e);
+			}
+		});
+		return Arrays.asList(result);
+	}
+
+	private void ingestNew(List<Staged> staged, TenantVO tenant, UserVO user, DlsResponse[] result) {
+
+		// a file the tenant has no room for fails alone, content already stored takes no room
+		List<Staged> reserved = Lists.newArrayList();
+		staged.forEach(s -> {
+			try {
+				s.reservation = contentStore.exists(tenant.getId(), s.digest) ? null
+						: storageQuota.reserve(tenant, s.upload.file().getSize());
+				reserved.add(s);
+			} catch (DataIntegrityViolationException e) {
+				result[s.index] = failure(s.upload.descriptor(), e);
+			}
+		});
+
+		TransactionTemplate tx = new TransactionTemplate(transactionManager);
+		List<Staged> persisted = Lists.newArrayList();
+		try {
+			for(List<Staged> batch : Lists.partition(reserved, batchSize)) {
+				try {
+					tx.executeWithoutResult(status -> persist(batch, user));
+					persisted.addAll(batch);
+				} catch (DataAccessException e) {
+					log.warn("Batch of {} files failed, inserting one by one. {}", batch.size(), e.getMessage());
+					batch.forEach(s -> {
+						try {
+							tx.executeWithoutResult(status -> persist(List.of(s), user));
+							persisted.add(s);
+						} catch (DataAccessException ex) {
+							result[s.index] = failure(s.upload.descriptor(), ex);
+						}
+					});
+				}
+			}
+			if(!persisted.isEmpty()) {
+				catalogCache.invalidate(tenant.getId());
+			}
+
+			Flux.fromIterable(persisted)
+					.parallel(writeParallelism)
+					.runOn(Schedulers.boundedElastic())
+					.doOnNext(s -> write(s, tenant, tx, result))
+					.sequential()
+					.blockLast();
+		} finally {
+			// files not stored, e.g. failed to insert, give their reservation back
+			reserved.forEach(s -> storageQuota.cancel(s.reservation));
+		}
+	}
+
+	/**
+	 * Write the bytes of a stored file, its content reference and storage job commit together. A file whose
+	 * bytes cannot be written is marked deleted, so no file is left without bytes.
+	 */
+	private void write(Staged s, TenantVO tenant, TransactionTemplate tx, DlsResponse[] result) {
+
+		try {
+			tx.executeWithoutResult(status ->
+					contentStore.write(s.upload.file(), s.vo.getFsPath(), s.vo, tenant, s.digest, s.originalFileName));
+		} catch (Exception e) {
+			try {
+				fileRepo.markDeleted(s.vo.getId());
+				catalogCache.invalidate(tenant.getId());
+			} catch (DataAccessException ex) {
+				log.error("Could not mark {} deleted after its write failed", s.vo.getFsPath(), ex);
+			}
+			result[s.index] = failure(s.upload.descriptor(), e);
+			return;
+		}
+		storageQuota.complete(s.reservation, tenant.getId(), (null == s.reservation) ? 0 : s.upload.file().getSize());
+		s.reservation = null;
+		result[s.index] = accepted(s.upload.descriptor(), s.vo.getFsPath());
+	}
+
+	/**
+	 * Validate an upload and build its rows, the same way {@link FileServiceHelper#saveAndUpload} does
+	 */
+	private Staged stage(int index, Upload upload, UserVO user) throws Exception {
+
+		FileDescriptor d = upload.descriptor();
+		MultipartFile file = upload.file();
+		String originalFileName = Optional.ofNullable(file.getOriginalFilename()).orElse(d.getFilename());
+		Map<String, String> props = dhelper.validate(d.getFilename(), d.getSavepoint(), originalFileName, d.getMetadata());
+
+		FileVO vo = FileVO.builder()
+				.fileName(d.getFilename())
+				.savepoint(d.getSavepoint())
+				.sizeInByte(file.getSize())
+				.user(user)
+				.deleted(false)
+				.external(false)
+				.createdOn(Timestamp.from(Instant.now()))
+				.build();
+		List<FileMetaVO> meta = fileServiceHelper.matchSchemaAndBuildMetadata(user, vo, props);
+		DirectoryVO directoryVO = fileServiceHelper.checkDirectory(d.getDirectory(), vo, user, meta);
+		vo.setDirectory(directoryVO);
+		vo.setFsPath(dhelper.generateDfsPath(user, d.getFilename(), d.getSavepoint(),
+				Optional.ofNullable(directoryVO).map(DirectoryVO::getId).orElse(null)));
+		meta.add(FileMetaVO.builder()
+				.user(user)
+				.file(vo)
+				.name(DLS_LINEAGE)
+				.value("CREATED")
+				.build());
+
+		return new Staged(index, upload, vo, meta, contentStore.digest(file), originalFileName);
+	}
+
+	/**
+	 * Insert files first and then all their metadata, so each statement type goes out in JDBC batches
+	 */
+	private void persist(List<Staged> batch, UserVO user) {
+
+		em.unwrap(Session.class).setJdbcBatchSize(batchSize);
+		// ids handed out by a rolled back attempt are dropped so the rows are inserted as new
+		batch.forEach(s -> {
+			s.vo.setId(null);
+			s.vo.setMeta(Lists.newArrayList());
+			s.meta.forEach(m -> m.setId(null));
+		});
+		fileRepo.saveAll(batch.stream().map(s -> s.vo).toList());
+		fileRepo.flush();
+		fileMetaRepo.saveAll(batch.stream().flatMap(s -> s.meta.stream()).toList());
+		commentRepo.saveAll(batch.stream()
+				.filter(s -> null != s.upload.descriptor().getComment() && !s.upload.descriptor().getComment().isEmpty())
+				.map(s -> CommentsVO.builder()
+						.comment(s.upload.descriptor().getComment())
+						.createdOn(Timestamp.from(Instant.now()))
+						.file(s.vo)
+						.tenant(user.getTenant())
+						.user(user)
+						.build())
+				.toList());
+		em.flush();
+		if(!FileServiceHelper.mapOfMetaValStandardEnf.isEmpty()) {
+			batch.forEach(s -> dhelper.insertMetaForStandardRule(user, s.vo.getFsPath(), FileServiceHelper.mapOfMetaValStandardEnf));
+		}
+		batch.forEach(s -> s.vo.setMeta(s.meta));
+		em.clear();
+	}
+
+	private static FileDescriptor.UploadMode mode(FileDescriptor descriptor) {
+
+		return Optional.ofNullable(descriptor.getMode())
+				.filter(m -> !m.isBlank())
+				.map(m -> FileDescriptor.UploadMode.valueOf(m.toUpperCase()))
+				.orElse(RESTRICT);
+	}
+
+	private static DlsResponse accepted(FileDescriptor descriptor, String fsPath) {
+
+		return DlsResponse.builder()
+				.key(descriptor.getFilename())
+				.value(fsPath)
+				.code(HttpStatus.ACCEPTED.value())
+				.build();
+	}
+
+	private DlsResponse failure(FileDescriptor descriptor, Exception e) {
+
+		HttpStatus status;
+		String key = e.getMessage();
+		if(e instanceof DlsValidationException) {
+			status = HttpStatus.BAD_REQUEST;
+		} else if(e instanceof IllegalArgumentException) {
+			status = HttpStatus.BAD_REQUEST;
+			key = "invalid.argument";
+		} else if(e instanceof DataIntegrityViolationException) {
+			status = HttpStatus.CONFLICT;
+			if(null != e.getCause()) {
+				// raised by the database, its message is SQL rather than a message key
+				key = (e instanceof DuplicateKeyException
+						|| NestedExceptionUtils.getMostSpecificCause(e) instanceof SQLException sql && "23505".equals(sql.getSQLState()))
+						? "already.exists" : "data.integrity.violation";
+			}
+		} else if(e instanceof DlsNotFoundException) {
+			status = HttpStatus.NOT_FOUND;
+		} else if(e instanceof DlsSecurityException || e instanceof DlsPrivacyException) {
+			status = HttpStatus.FORBIDDEN;
+		} else {
+			log.error("Upload of {} failed", descriptor.getFilename(), e);
+			status = HttpStatus.INTERNAL_SERVER_ERROR;
+		}
+		String message = Optional.ofNullable(key).map(k -> ev.getProperty(k, k)).orElse(status.getReasonPhrase());
+		return DlsResponse.builder()
+				.key(descriptor.getFilename())
+				.code(status.value())
+				.messages(Set.of(message))
+				.build();
+	}
+}
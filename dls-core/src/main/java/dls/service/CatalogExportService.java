@@ -0,0 +1,81 @@
+package dls.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dls.vo.CatalogVO;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Root;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Export of all results of a catalog search as newline delimited JSON, one record per line.
+ * <p>
+ * The rows are read in a single query through a server side cursor, <code>dls.export.fetch.size</code> rows
+ * at a time, and each is written out as soon as it is read. Rows already written are dropped from the
+ * persistence context, so the memory used does not grow with the size of the result.
+ */
+@Slf4j
+@Service
+public class CatalogExportService {
+
+	public static final String NDJSON = "application/x-ndjson";
+
+	@PersistenceContext private EntityManager em;
+	@Autowired private ObjectMapper objectMapper;
+
+	@Value("${dls.export.fetch.size:1000}")
+	private int fetchSize;
+
+	/**
+	 * @param spec the filters of the search, as built for <code>/catalog/explorer</code>
+	 * @param mapper record written for a row
+	 * @return number of records written
+	 */
+	@Transactional(value = "transactionManager", readOnly = true)
+	public long export(Specification<CatalogVO> spec, Sort sort, Function<CatalogVO, ?> mapper, OutputStream out) throws IOException {
+
+		CriteriaBuilder cb = em.getCriteriaBuilder();
+		CriteriaQuery<CatalogVO> cq = cb.createQuery(CatalogVO.class);
+		Root<CatalogVO> root = cq.from(CatalogVO.class);
+		Optional.ofNullable(spec).map(s -> s.toPredicate(root, cq, cb)).ifPresent(cq::where);
+		cq.select(root).orderBy(QueryUtils.toOrders(Optional.ofNullable(sort).orElse(Sort.by("id")), root, cb));
+
+		long count = 0;
+		OutputStream buffer = new BufferedOutputStream(out);
+		try (Stream<CatalogVO> rows = em.createQuery(cq)
+				.setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize)
+				.setHint(HibernateHints.HINT_READ_ONLY, true)
+				.getResultStream()) {
+
+			Iterator<CatalogVO> it = rows.iterator();
+			while(it.hasNext()) {
+				buffer.write(objectMapper.writeValueAsBytes(mapper.apply(it.next())));
+				buffer.write('\n');
+				if(++count % fetchSize == 0) {
+					em.clear();
+				}
+			}
+		}
+		buffer.flush();
+		log.info("Exported {} catalog records", count);
+		return count;
+	}
+}
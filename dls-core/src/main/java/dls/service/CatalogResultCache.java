@@ -0,0 +1,158 @@
+package dls.service;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import dls.repo.TenantCatalogChangeRepo;
+import dls.vo.UserVO;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Results of catalog and explorer searches, kept per user and query until the tenant's catalog changes.
+ * <p>
+ * Each tenant has a version that is part of the key of its results, so moving it on makes all of them
+ * unreachable at once and they age out of the cache. The version moves on when this instance changes files,
+ * their metadata, directories or permissions, see {@link #invalidate(Long)}, and when
+ * <code>tenant_catalog_change</code>, which triggers on <code>catalog</code> and <code>directory_acl_change</code>
+ * append to for every writer, is seen to grow, polled every <code>dls.catalog.cache.poll.ms</code>.
+ * Changes are kept for <code>dls.catalog.cache.change.retention.ms</code>.
+ * At most <code>dls.catalog.cache.size</code> results are kept, the least recently used go first, and none
+ * for longer than <code>dls.catalog.cache.ttl.ms</code>.
+ * Cached results are shared, callers must not change them.
+ */
+@Slf4j
+@Component
+public class CatalogResultCache {
+
+	@Autowired private TenantCatalogChangeRepo tenantCatalogChangeRepo;
+
+	@Value("${dls.catalog.cache.size:10000}")
+	private long maximumSize;
+	@Value("${dls.catalog.cache.ttl.ms:600000}")
+	private long ttlMillis;
+	@Value("${dls.catalog.cache.change.retention.ms:3600000}")
+	private long changeRetentionMillis;
+
+	private final Map<Long, AtomicLong> versions = new ConcurrentHashMap<>();
+	/** changes read by the last poll that the next one reads again, by tenant */
+	private Map<Long, Long> pendingChanges = Map.of();
+	/** changes of transactions below it were read by the last poll */
+	private String changeXmin = "0";
+	private Cache<Key, Object> results;
+
+	private static final Object NONE = new Object();
+
+	/**
+	 * @param search name of the search, e.g. <code>explorer</code>, results of different searches never mix
+	 * @param query the parameters of the search, compared by their <code>toString()</code>
+	 */
+	private record Key(Long tenantId, long version, Long userId, String search, String query) {}
+
+	@PostConstruct
+	void init() {
+		results = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Cached result of a search, run by <code>loader</code> if there is none for the tenant's current version
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String search, UserVO user, Object query, Supplier<T> loader) {
+
+		Long tenantId = user.getTenant().getId();
+		// loaded under the version read before the query, a change committed meanwhile leaves the result unused
+		Key key = new Key(tenantId, version(tenantId).get(), user.getId(), search, String.valueOf(query));
+		try {
+			Object result = results.get(key, () -> Optional.<Object>ofNullable(loader.get()).orElse(NONE));
+			return (result == NONE) ? null : (T) result;
+		} catch (UncheckedExecutionException | ExecutionException e) {
+			Throwables.throwIfUnchecked(e.getCause());
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Drop the results of a tenant, once the current transaction commits if there is one
+	 */
+	public void invalidate(Long tenantId) {
+
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					version(tenantId).incrementAndGet();
+				}
+			});
+		} else {
+			version(tenantId).incrementAndGet();
+		}
+	}
+
+	/**
+	 * Hits, misses, loads and evictions since start
+	 */
+	public CacheStats stats() {
+		return results.stats();
+	}
+
+	/**
+	 * Catch up with changes of the catalog made by other writers
+	 */
+	@Scheduled(fixedDelayString = "${dls.catalog.cache.poll.ms:1000}")
+	public synchronized void poll() {
+
+		Map<Long, Long> pending = new HashMap<>();
+		tenantCatalogChangeRepo.findChanges(changeXmin).forEach(row -> {
+			changeXmin = (String) row.get("xmin");
+			if(null == row.get("tenant_id")) return;
+			Long tenantId = ((Number) row.get("tenant_id")).longValue();
+			// changes committed since the last poll, including late commits of older transactions
+			if(((Number) row.get("changes")).longValue() > pendingChanges.getOrDefault(tenantId, 0L)) {
+				version(tenantId).incrementAndGet();
+			}
+			pending.put(tenantId, ((Number) row.get("pending")).longValue());
+		});
+		pendingChanges = pending;
+	}
+
+	@Scheduled(fixedDelayString = "${dls.catalog.cache.change.purge.ms:600000}", initialDelay = 600000)
+	public void purgeChanges() {
+		tenantCatalogChangeRepo.deleteChangedBefore(new Timestamp(System.currentTimeMillis() - changeRetentionMillis));
+	}
+
+	@Scheduled(fixedDelayString = "${dls.catalog.cache.stats.ms:600000}", initialDelay = 600000)
+	public void logStats() {
+
+		CacheStats stats = results.stats();
+		log.info("Catalog result cache: {} results, {} hits, {} misses, hit rate {}, {} evictions",
+				results.size(), stats.hitCount(), stats.missCount(), String.format("%.2f", stats.hitRate()),
+				stats.evictionCount());
+	}
+
+	private AtomicLong version(Long tenantId) {
+		return versions.computeIfAbsent(tenantId, k -> new AtomicLong());
+	}
+}
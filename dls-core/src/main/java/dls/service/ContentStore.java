@@ -0,0 +1,253 @@
+package dls.service;
+
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import dls.repo.ContentObjectRepo;
+import dls.repo.FileContentRepo;
+import dls.repo.FileRepo;
+import dls.vo.ContentObjectVO;
+import dls.vo.FileContentVO;
+import dls.vo.FileVO;
+import dls.vo.TenantVO;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Per tenant content addressed storage of uploaded files.
+ * <p>
+ * When enabled, each distinct payload of a tenant is stored once under
+ * <code>&lt;tcupUser&gt;/_dls_content/&lt;sha256&gt;/&lt;file name&gt;</code> and every file with that payload holds a
+ * counted reference to it. Content appended to no longer matches its digest and moves to
+ * <code>&lt;tcupUser&gt;/_dls_content/appended-&lt;content id&gt;/&lt;file name&gt;</code> first, so a later upload of the
+ * original payload does not write over it.
+ * The file keeps its logical <code>fsPath</code>, readers locate the bytes with {@link #resolve(Long, String)}
+ * and the failsafe sync finds the file of spooled bytes with {@link #findStored(String, String)}.
+ * <p>
+ * A file sharing content already stored takes the upload status of the content's other files, and the database
+ * passes the status of the file that writes the content on to the others once stored. Deleting a file releases
+ * its reference in the database as well. Releasing only counts references down, the bytes of contents left
+ * without references are removed by {@link #purge()} once that is committed.
+ */
+@Slf4j
+@Service
+public class ContentStore {
+
+	static final String CONTENT_DIR = "_dls_content";
+	private static final String APPENDED_PREFIX = "appended-";
+	private static final int PURGE_BATCH = 500;
+
+	@Autowired private ContentObjectRepo contentObjectRepo;
+	@Autowired private FileContentRepo fileContentRepo;
+	@Autowired private FileRepo fileRepo;
+	@Autowired private IFileManagementService dfsService;
+
+	@Value("${dls.dedup.enabled:false}")
+	private Boolean enabled;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return hex SHA-256 of the upload, or null when deduplication is disabled
+	 */
+	public String digest(@NonNull MultipartFile multipart) throws IOException {
+
+		if(!enabled) return null;
+		try (HashingInputStream in = new HashingInputStream(Hashing.sha256(), multipart.getInputStream())) {
+			ByteStreams.exhaust(in);
+			return in.hash().toString();
+		}
+	}
+
+	/**
+	 * @return true if the tenant already stores content with this digest
+	 */
+	public boolean exists(Long tenantId, String digest) {
+		return null != digest && contentObjectRepo.existsByTenantIdAndSha256(tenantId, digest);
+	}
+
+	public Long getUsedStorage(Long tenantId) {
+
+		return Optional.ofNullable(enabled ? contentObjectRepo.getUsedStorage(tenantId) : fileRepo.getUsedStorage(tenantId))
+				.orElse(0L);
+	}
+
+	/**
+	 * Store the upload of a file. Without deduplication the bytes are written to <code>fsPath</code>, otherwise
+	 * the file references the tenant's content with the same digest and the bytes are written only if new.
+	 * A reference held by the file before, e.g. on overwrite, is released.
+	 */
+	public void write(@NonNull MultipartFile multipart, String fsPath, @NonNull FileVO file, TenantVO tenant,
+					  String digest, String originalFileName) {
+
+		if(!enabled || null == digest) {
+			dfsService.write(multipart, fsPath, file.getId());
+			return;
+		}
+
+		String contentPath = Joiner.on('/').join(tenant.getTcupUser(), CONTENT_DIR, digest, originalFileName);
+		ContentObjectVO content = contentObjectRepo.acquire(tenant.getId(), digest, contentPath, multipart.getSize());
+		Optional<Long> previous = fileContentRepo.findById(file.getId()).map(FileContentVO::getContentId);
+		fileContentRepo.save(FileContentVO.builder().fileId(file.getId()).contentId(content.getId()).build());
+		previous.ifPresent(this::release);
+
+		if(content.getRefCount() == 1) {
+			dfsService.write(multipart, content.getFsPath(), file.getId());
+		} else {
+			log.info("{} has the content of {}, not stored again", fsPath, content.getFsPath());
+			// the content row stays locked until the upload commits, a write of the content completing meanwhile
+			// waits for it and passes its status on to this file as well
+			fileContentRepo.findContentStatus(content.getId(), file.getId()).stream().findFirst().ifPresent(status -> {
+				file.setStorage((String) status.get("storage"));
+				file.setUploaded((Boolean) status.get("uploaded"));
+				fileRepo.save(file);
+			});
+		}
+	}
+
+	/**
+	 * @return path of the bytes of the file, its own <code>fsPath</code> unless it references shared content
+	 */
+	public String resolve(Long fileId, String fsPath) {
+
+		return fileContentRepo.findById(fileId)
+				.flatMap(fc -> contentObjectRepo.findById(fc.getContentId()))
+				.map(ContentObjectVO::getFsPath)
+				.orElse(fsPath);
+	}
+
+	public String resolve(@NonNull FileVO file) {
+		return enabled ? resolve(file.getId(), file.getFsPath()) : file.getFsPath();
+	}
+
+	/**
+	 * @return file of the given storage whose bytes belong at <code>fsPath</code>, its own path or the path of
+	 * the content it references
+	 */
+	public Optional<FileVO> findStored(String fsPath, String storage) {
+
+		Optional<FileVO> file = fileRepo.findByFsPathAndStorage(fsPath, storage);
+		return (file.isPresent() || !fsPath.contains('/' + CONTENT_DIR + '/')) ? file
+				: fileRepo.findByContentPathAndStorage(fsPath, storage);
+	}
+
+	/**
+	 * Path to append to. Content referenced by other files can not change in place, content held only by
+	 * this file stops being shared as its digest no longer matches, and is moved out of its digest directory.
+	 * The move is undone if the transaction rolls back.
+	 */
+	public String resolveForAppend(Long fileId, String fsPath, long appendSize) {
+
+		return fileContentRepo.findById(fileId)
+				.flatMap(fc -> contentObjectRepo.findById(fc.getContentId()))
+				.map(c -> {
+					if(c.getRefCount() > 1) {
+						throw new DataIntegrityViolationException("append.shared.content");
+					}
+					if(null != c.getSha256()) {
+						moveOutOfDigest(c);
+					}
+					c.setSha256(null);
+					c.setSizeInByte(Optional.ofNullable(c.getSizeInByte()).orElse(0L) + appendSize);
+					contentObjectRepo.save(c);
+					return c.getFsPath();
+				})
+				.orElse(fsPath);
+	}
+
+	private void moveOutOfDigest(ContentObjectVO content) {
+
+		String path = content.getFsPath();
+		String digestDir = path.substring(0, path.lastIndexOf('/'));
+		String appendedPath = digestDir.substring(0, digestDir.lastIndexOf('/') + 1) + APPENDED_PREFIX
+				+ content.getId() + path.substring(digestDir.length());
+		try {
+			dfsService.move(path, appendedPath);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not move " + path + " to append to it", e);
+		}
+		content.setFsPath(appendedPath);
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					if(status != STATUS_ROLLED_BACK) return;
+					try {
+						dfsService.move(appendedPath, path);
+					} catch (IOException e) {
+						log.error("Could not move {} back to {}, the content row still points there", appendedPath,
+								path, e);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * True if the bytes of the file are content addressed, so archiving it needs no move in storage
+	 */
+	public boolean isReferenced(Long fileId) {
+		return fileContentRepo.existsById(fileId);
+	}
+
+	/**
+	 * Release the references of files being removed and return the bytes no longer used: the size of contents
+	 * losing their last reference and of files stored without deduplication
+	 */
+	public long releaseFiles(Collection<FileVO> files) {
+
+		long released = 0;
+		for(FileVO f : files) {
+			Optional<FileContentVO> fc = fileContentRepo.findById(f.getId());
+			if(fc.isPresent()) {
+				fileContentRepo.delete(fc.get());
+				released += release(fc.get().getContentId());
+			} else if(!Optional.ofNullable(f.getDeleted()).orElse(Boolean.FALSE)) {
+				released += Optional.ofNullable(f.getSizeInByte()).orElse(0L);
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * Remove the bytes of contents released by deleted files
+	 */
+	@Scheduled(fixedDelayString = "${dls.dedup.purge.ms:600000}", initialDelay = 60000)
+	public void purge() {
+
+		if(!enabled) return;
+		List<ContentObjectVO> released;
+		do {
+			released = contentObjectRepo.purgeUnreferenced(PURGE_BATCH);
+			released.forEach(c -> {
+				// the digest directory holds only this content, unless it was uploaded again meanwhile
+				String digestDir = c.getFsPath().substring(0, c.getFsPath().lastIndexOf('/'));
+				if(!contentObjectRepo.existsByFsPathStartingWith(digestDir + '/')) {
+					log.info("Last reference to {} released", c.getFsPath());
+					dfsService.delete(true, digestDir);
+				}
+			});
+		} while(released.size() == PURGE_BATCH);
+	}
+
+	// the bytes stay until purge() finds the content unreferenced after commit
+	private long release(Long contentId) {
+		return Optional.ofNullable(contentObjectRepo.decrement(contentId)).orElse(0L);
+	}
+}
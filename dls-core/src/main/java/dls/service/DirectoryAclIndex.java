@@ -0,0 +1,242 @@
+package dls.service;
+
+import com.google.common.base.Splitter;
+import dls.repo.DirectoryAclChangeRepo;
+import dls.repo.PermissionRepo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In memory index of the directory permissions of each tenant: directory path to user to a bitmask of the
+ * action characters granted, <code>A</code> to <code>Z</code>.
+ * <p>
+ * A tenant's permissions are loaded once, on first use. Afterwards only the paths whose permissions or
+ * directories changed are read again: triggers append each changed path to <code>directory_acl_change</code>,
+ * which is polled every <code>dls.acl.index.poll.ms</code>, as {@link CatalogResultCache} polls catalog changes,
+ * and right after a service of this instance commits a change, see {@link #refresh(Long)}. A permission revoked
+ * through another instance is therefore honoured here for at most a poll. Changes are kept for
+ * <code>dls.acl.index.change.retention.ms</code>. Threads needing the same tenant's permissions while they are
+ * loaded wait for that one load instead of querying as well, changed paths are applied under the same lock.
+ */
+@Component
+public class DirectoryAclIndex {
+
+	@Autowired private PermissionRepo permissionRepo;
+	@Autowired private DirectoryAclChangeRepo directoryAclChangeRepo;
+	@Autowired private PlatformTransactionManager transactionManager;
+
+	@Value("${dls.acl.index.change.retention.ms:3600000}")
+	private long changeRetentionMillis;
+
+	private final Map<Long, TenantAcl> acls = new ConcurrentHashMap<>();
+	private final Map<Long, Object> loads = new ConcurrentHashMap<>();
+	/** changes read by the last poll that the next one reads again */
+	private Set<Long> pendingChanges = Set.of();
+	/** changes of transactions below it were read by the last poll */
+	private String changeXmin = "0";
+
+	private static final class DirectoryAcl {
+
+		/** id of the directory of the path that is not deleted, null if there is none */
+		private Long liveId;
+		/** actions of the permitted user of a permission, on any directory of the path */
+		private final Map<Long, Integer> granted = new HashMap<>();
+		/** actions of the permitted and acquired users of a permission, on the directory that is not deleted */
+		private final Map<Long, Integer> live = new HashMap<>();
+	}
+
+	public static final class TenantAcl {
+
+		private final Map<String, DirectoryAcl> byPath;
+
+		TenantAcl(List<Map<String, Object>> rows) {
+			this.byPath = new ConcurrentHashMap<>(index(rows));
+		}
+
+		/**
+		 * Replace the permissions of the paths with those read from <code>rows</code>, a path without rows has none
+		 */
+		void apply(Collection<String> directories, List<Map<String, Object>> rows) {
+
+			Map<String, DirectoryAcl> paths = index(rows);
+			directories.forEach(d -> {
+				DirectoryAcl acl = paths.get(d);
+				if(null == acl) {
+					byPath.remove(d);
+				} else {
+					byPath.put(d, acl);
+				}
+			});
+		}
+
+		private static Map<String, DirectoryAcl> index(List<Map<String, Object>> rows) {
+
+			Map<String, DirectoryAcl> paths = new HashMap<>(rows.size() * 2);
+			rows.forEach(row -> {
+				DirectoryAcl acl = paths.computeIfAbsent((String) row.get("directory"), k -> new DirectoryAcl());
+				Long permittedUser = toLong(row.get("permitted_user"));
+				int mask = mask((String) row.get("action"));
+				if(null != permittedUser) {
+					acl.granted.merge(permittedUser, mask, (a, b) -> a | b);
+				}
+				if(Boolean.TRUE.equals(row.get("deleted"))) {
+					return;
+				}
+				acl.liveId = toLong(row.get("directory_id"));
+				if(null != permittedUser) {
+					acl.live.merge(permittedUser, mask, (a, b) -> a | b);
+				}
+				Optional.ofNullable((String) row.get("acquired_user"))
+						.filter(s -> !s.isEmpty())
+						.ifPresent(s -> Splitter.on(',').split(s)
+								.forEach(u -> acl.live.merge(Long.valueOf(u), mask, (a, b) -> a | b)));
+			});
+			return paths;
+		}
+
+		/**
+		 * Whether the user is the permitted user of a permission of the directory with the action, as
+		 * {@link PermissionRepo#checkPermission} counts them
+		 */
+		public boolean hasPermission(Long userId, String directory, char action) {
+
+			DirectoryAcl acl = (null == directory) ? null : byPath.get(directory);
+			return null != acl && (acl.granted.getOrDefault(userId, 0) & bit(action)) != 0;
+		}
+
+		/**
+		 * Id of the directory, not deleted, with a permission naming the user as permitted or acquired user,
+		 * null if there is none
+		 */
+		public Long permittedDirectoryId(Long userId, String directory) {
+
+			DirectoryAcl acl = (null == directory) ? null : byPath.get(directory);
+			return (null != acl && null != acl.liveId && acl.live.containsKey(userId)) ? acl.liveId : null;
+		}
+
+		/**
+		 * Whether a permission of the directory, not deleted, names the user as permitted or acquired user and
+		 * grants the action
+		 */
+		public boolean isPermitted(Long userId, String directory, char action) {
+
+			DirectoryAcl acl = (null == directory) ? null : byPath.get(directory);
+			return null != acl && null != acl.liveId && (acl.live.getOrDefault(userId, 0) & bit(action)) != 0;
+		}
+
+		private static int mask(String action) {
+
+			int mask = 0;
+			if(null != action) {
+				for(int i = 0; i < action.length(); i++) {
+					mask |= bit(action.charAt(i));
+				}
+			}
+			return mask;
+		}
+
+		private static int bit(char action) {
+			return (action >= 'A' && action <= 'Z') ? 1 << (action - 'A') : 0;
+		}
+
+		private static Long toLong(Object value) {
+			return (null == value) ? null : ((Number) value).longValue();
+		}
+	}
+
+	public TenantAcl get(Long tenantId) {
+
+		TenantAcl acl = acls.get(tenantId);
+		if(null != acl) {
+			return acl;
+		}
+		synchronized(lock(tenantId)) {
+			// loaded by the thread this one waited for
+			acl = acls.get(tenantId);
+			if(null != acl) {
+				return acl;
+			}
+			// a change committed while loading is applied after the load, under the same lock
+			acl = new TenantAcl(permissionRepo.findAclByTenantId(tenantId));
+			acls.put(tenantId, acl);
+			return acl;
+		}
+	}
+
+	public boolean hasPermission(Long tenantId, Long userId, String directory, char action) {
+		return get(tenantId).hasPermission(userId, directory, action);
+	}
+
+	/**
+	 * Apply the permission changes made for a tenant, once the current transaction commits if there is one
+	 */
+	public void refresh(Long tenantId) {
+
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					if(acls.containsKey(tenantId)) poll();
+				}
+			});
+		} else if(acls.containsKey(tenantId)) {
+			poll();
+		}
+	}
+
+	/**
+	 * Apply the permissions of paths changed since the last poll, by this or any other DLS instance
+	 */
+	@Scheduled(fixedDelayString = "${dls.acl.index.poll.ms:1000}")
+	public synchronized void poll() {
+
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		// after commit the committed transaction's connection may still be bound, read in a transaction of its own
+		template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		template.setReadOnly(true);
+		Set<Long> pending = new HashSet<>();
+		Map<Long, Set<String>> changed = new HashMap<>();
+		template.executeWithoutResult(status -> directoryAclChangeRepo.findChanges(changeXmin).forEach(row -> {
+			changeXmin = (String) row.get("xmin");
+			if(null == row.get("id")) return;
+			Long id = ((Number) row.get("id")).longValue();
+			if(Boolean.TRUE.equals(row.get("pending"))) {
+				pending.add(id);
+			}
+			// applied by the last poll, read again as its transaction was still below the xmin
+			if(pendingChanges.contains(id)) return;
+			changed.computeIfAbsent(((Number) row.get("tenant_id")).longValue(), k -> new HashSet<>())
+					.add((String) row.get("directory"));
+		}));
+		pendingChanges = pending;
+		changed.forEach((tenantId, directories) -> {
+			synchronized(lock(tenantId)) {
+				TenantAcl acl = acls.get(tenantId);
+				if(null != acl) {
+					acl.apply(directories, template.execute(status ->
+							permissionRepo.findAclByTenantIdAndDirectoryIn(tenantId, directories)));
+				}
+			}
+		});
+	}
+
+	@Scheduled(fixedDelayString = "${dls.acl.index.change.purge.ms:600000}", initialDelay = 600000)
+	public void purgeChanges() {
+		directoryAclChangeRepo.deleteChangedBefore(new Timestamp(System.currentTimeMillis() - changeRetentionMillis));
+	}
+
+	private Object lock(Long tenantId) {
+		return loads.computeIfAbsent(tenantId, k -> new Object());
+	}
+}
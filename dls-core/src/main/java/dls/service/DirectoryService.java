@@ -17,6 +17,7 @@ import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ArrayUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.InvalidDataAccessApiUsageException;
@@ -42,11 +43,14 @@ import static org.springframework.http.HttpStatus.*;
 public class DirectoryService {
 
 	private static final String DIRECTORY = "directory";
+	private static final int LOOKUP_SIZE = 10000;
 	@Autowired private UserService uservice;
 	@Autowired private DirectoryRepo directoryRepo;
 	@Autowired private TenantRepo tenantRepo;
 	@Autowired private PermissionRepo permissionRepo;
-	@Autowired private UserRepo userRepo;
+	@Autowired private DirectoryAclIndex aclIndex;
+	@Autowired private CatalogResultCache catalogCache;
+	@Autowired private TenantUserCache userCache;
 	@Autowired private DirectoryMetaRepo dirMetaRepo;
 	@Autowired private MetaDataSchemaService mdService;
 	@Autowired private DlsServiceHelper dlsServiceHelper;
@@ -54,6 +58,11 @@ public class DirectoryService {
 	@Autowired private DirectoryServiceHelper directoryServiceHelper;
 	@Autowired private DlsServiceHelper dhelper;
 
+	@Value("${dls.directory.bulk.min:100}")
+	private int bulkMinimum;
+	@Value("${dls.directory.batch.size:500}")
+	private int batchSize;
+
 	/**
 	 * Update directory metadata rule for a directory
 	 * @param apiKey
@@ -73,7 +82,7 @@ public class DirectoryService {
 		UserVO user = uservice.authorize(apiKey, dlsKey);
 		TenantVO tenant = user.getTenant();
 
-		if(!user.getAdmin() && permissionRepo.checkPermission(user.getId(), directory, "%"+Permission.Util.DIRECTORY_CREATE+"%") == 0) {
+		if(!user.getAdmin() && !aclIndex.hasPermission(user.getTenant().getId(), user.getId(), directory, Permission.Util.DIRECTORY_CREATE)) {
 			throw new DlsPrivacyException();
 		}
 
@@ -194,24 +203,16 @@ public class DirectoryService {
 					((Directory)d).getDirectory() : (d instanceof PermissionVO) ?
 						((PermissionVO)d).getDirectory().getDirectory() : DIRECTORY;
 			log.error("directory {} and error is {}", name, e.getMessage());
-
-
-			String m = Optional.ofNullable(ev.getProperty(e.getMessage())).orElse(e.getMessage());
-			String message = (e instanceof InvalidDataAccessApiUsageException || e.getMessage().contains("ConstraintViolationException"))
-					? "Directory already exists" : m;
-
-
-			response.computeIfPresent(name,
-					(k,v) -> DlsResponse.builder()
-						.key(DIRECTORY)
-						.value(name)
-						.code(CONFLICT.value())
-						.messages(Set.of(message))
-						.build());
+			reportConflict(response, name, e);
 //				response.computeIfPresent(name, (k,v) -> message);
 
 		};
 
+		if(directories.size() >= bulkMinimum) {
+			createDirectoryTree(user, directories, response);
+			return Lists.newArrayList(response.values());
+		}
+
 
 		Flux.fromIterable(directories)
 				.doOnNext(d -> checkDirectoryExists(user, d.getDirectory()))
@@ -232,7 +233,130 @@ public class DirectoryService {
 		return Lists.newArrayList(response.values());
 	}
 
-	private void checkDirectoryExists(UserVO user, String directory) {
+	/**
+	 * Create the directories and all their missing ancestors in bulk, for requests of at least
+	 * <code>dls.directory.bulk.min</code> directories.
+	 * <p>
+	 * All paths and their ancestors are collected once, ignoring case, and the existing ones are read with one
+	 * query. Missing directories are inserted one level at a time, in JDBC batches of
+	 * <code>dls.directory.batch.size</code>. A batch that fails is retried one directory at a time. A directory
+	 * whose parent could not be created is not created either.
+	 */
+	private void createDirectoryTree(UserVO user, List<Directory> directories, Map<String, DlsResponse> response) {
+
+		Long tenantId = user.getTenant().getId();
+		// requested directories first, so their permissions and rules win over the ancestors of other paths
+		Map<String, Directory> paths = new LinkedHashMap<>();
+		List<Directory> requested = Lists.newArrayList();
+		directories.forEach(d -> {
+			try {
+				validateDirectoryName(d.getDirectory());
+				checkDirectoryPermission(user, d, Permission.Util.DIRECTORY_CREATE);
+				Directory first = paths.putIfAbsent(pathKey(d.getDirectory()), d);
+				if(null != first && !first.getDirectory().equals(d.getDirectory())) {
+					throw new InvalidDataAccessApiUsageException("Duplicate directory name");
+				}
+				requested.add(d);
+			} catch (RuntimeException e) {
+				reportConflict(response, d.getDirectory(), e);
+			}
+		});
+		requested.forEach(d -> expandDirectoryPath(d).toIterable()
+				.forEach(a -> paths.putIfAbsent(pathKey(a.getDirectory()), a)));
+
+		Map<String, Long> ids = Maps.newHashMap();
+		Lists.partition(Lists.newArrayList(paths.keySet()), LOOKUP_SIZE)
+				.forEach(keys -> directoryRepo.findIdsByDirectoriesIgnoreCase(tenantId, keys)
+						.forEach(row -> ids.put((String) row.get(DIRECTORY), ((Number) row.get("id")).longValue())));
+		int existing = ids.size();
+		requested.stream()
+				.filter(d -> ids.containsKey(pathKey(d.getDirectory())))
+				.forEach(d -> reportConflict(response, d.getDirectory(),
+						new InvalidDataAccessApiUsageException("Duplicate directory name")));
+
+		List<Directory> missing = paths.entrySet().stream()
+				.filter(e -> !ids.containsKey(e.getKey()))
+				.map(Map.Entry::getValue)
+				.collect(Collectors.toList());
+		// users of all permissions are read at once, acquired users once per user
+		Map<String, UserVO> users = directoryServiceHelper.findPermittedUsers(missing.stream()
+				.flatMap(d -> Optional.ofNullable(d.getPermissions()).orElse(Lists.newArrayList()).stream())
+				.collect(Collectors.toList()), user);
+		Map<Long, Long[]> acquired = Maps.newHashMap();
+
+		SortedMap<Integer, List<DirectoryVO>> levels = new TreeMap<>();
+		missing.forEach(d -> {
+			try {
+				DirectoryVO vo = directoryServiceHelper.buildDirectoryToVO(d, user, users, acquired);
+				if(!response.containsKey(vo.getDirectory())) vo.setDirectoryMetaVOList(null);
+				levels.computeIfAbsent(StringUtils.countOccurrencesOf(vo.getDirectory(), "/"), k -> Lists.newArrayList())
+						.add(vo);
+			} catch (RuntimeException e) {
+				reportConflict(response, d.getDirectory(), e);
+			}
+		});
+
+		levels.values().forEach(level -> {
+			List<DirectoryVO> ready = Lists.newArrayList();
+			level.forEach(vo -> {
+				String parent = vo.getDirectory().substring(0, vo.getDirectory().lastIndexOf('/'));
+				if(parent.isEmpty()) {
+					ready.add(vo);
+				} else if(ids.containsKey(pathKey(parent))) {
+					vo.setParent(ids.get(pathKey(parent)));
+					ready.add(vo);
+				} else {
+					reportConflict(response, vo.getDirectory(),
+							new DataIntegrityViolationException("Parent directory could not be created"));
+				}
+			});
+			Lists.partition(ready, batchSize).forEach(batch -> {
+				try {
+					dlsServiceHelper.saveDirectoriesAndPermissions(batch)
+							.forEach(vo -> ids.put(pathKey(vo.getDirectory()), vo.getId()));
+				} catch (RuntimeException e) {
+					log.warn("Batch of {} directories failed, creating one by one. {}", batch.size(), e.getMessage());
+					batch.forEach(vo -> {
+						// ids handed out by the rolled back batch are dropped so the rows are inserted as new
+						vo.setId(null);
+						vo.getPermission().forEach(p -> p.setId(null));
+						Optional.ofNullable(vo.getDirectoryMetaVOList()).ifPresent(m -> m.forEach(meta -> meta.setId(null)));
+						try {
+							DirectoryVO saved = dlsServiceHelper.saveDirectoryAndPermission(vo);
+							ids.put(pathKey(saved.getDirectory()), saved.getId());
+						} catch (RuntimeException ex) {
+							reportConflict(response, vo.getDirectory(), ex);
+						}
+					});
+				}
+			});
+		});
+		log.info("{} of {} missing directories created in bulk", ids.size() - existing, missing.size());
+	}
+
+	/**
+	 * Mark a requested directory as not created, other directories have no response
+	 */
+	private void reportConflict(Map<String, DlsResponse> response, String name, Throwable e) {
+
+		String m = Optional.ofNullable(e.getMessage()).map(k -> ev.getProperty(k, k)).orElse(CONFLICT.getReasonPhrase());
+		String message = (e instanceof InvalidDataAccessApiUsageException || m.contains("ConstraintViolationException"))
+				? "Directory already exists" : m;
+
+		response.computeIfPresent(name,
+				(k,v) -> DlsResponse.builder()
+					.key(DIRECTORY)
+					.value(name)
+					.code(CONFLICT.value())
+					.messages(Set.of(message))
+					.build());
+	}
+
+	private static String pathKey(String directory) {
+		return directory.toLowerCase(Locale.ROOT);
+	}
+
+	private void validateDirectoryName(String directory) {
 
 		if(directory.matches(".*/{2,}.*")) {
 			throw new DlsValidationException("Contains multiple successive '/' characters as directory separator");
@@ -240,6 +364,11 @@ public class DirectoryService {
 		if(Arrays.stream(directory.split("/")).anyMatch(d -> d.length() > DIRECTORY_LEN)) {
 			throw new DlsValidationException("too.long.directory");
 		}
+	}
+
+	private void checkDirectoryExists(UserVO user, String directory) {
+
+		validateDirectoryName(directory);
 		if(null != directoryRepo.findByDirectoryIgnoreCaseAndDeletedAndTenantId(directory, false, user.getTenant().getId())) {
 			throw new InvalidDataAccessApiUsageException("Duplicate directory name");
 		}
@@ -249,7 +378,7 @@ public class DirectoryService {
 
 		if(! Optional.ofNullable(user.getAdmin()).orElse(Boolean.FALSE)) {
 			String parent = getParentDirectory(d.getDirectory());
-			if(permissionRepo.checkPermission(user.getId(), parent, "%"+action+"%").intValue() == 0) {
+			if(!aclIndex.hasPermission(user.getTenant().getId(), user.getId(), parent, action)) {
 				throw new RuntimeException("Not authorized");
 			}
 		}
@@ -278,16 +407,14 @@ public class DirectoryService {
 
 	}
 
-	private Permission collectPermissionByAction(Flux<PermissionVO> pFlux) {
+	private Permission collectPermissionByAction(Flux<PermissionVO> pFlux, Map<Long, String> dlsUsers) {
 
 		Permission permission = Permission.builder().build();
 		List <String> users = Lists.newArrayList();
 		pFlux
 				.doOnNext(p -> Permission.Util.parseAction(p.getAction(), permission))
 				.flatMap(p -> Flux.fromArray(ArrayUtils.add(p.getAcquiredUser(), p.getPermittedUser())))
-				.map(userRepo::findById)
-				.map(Optional::get)
-				.map(UserVO::getDlsUser)
+				.mapNotNull(dlsUsers::get)
 				.distinct()
 				.subscribe(users::add);
 		permission.setUsers(users);
@@ -326,10 +453,15 @@ public class DirectoryService {
 		List<Directory> response = Lists.newArrayList();
 
 		directory = (directory == null) ? "*" : directory;
-		List<DirectoryVO> directoryVOList = directoryRepo.getDirectoryNamesByPermittedUser(directory.replace('*','%'), user.getTenant().getId(), user.getId());
+		List<DirectoryVO> directoryVOList = findPermittedDirectories(user, directory);
 		if(directoryVOList.isEmpty()) {
 			throw new DlsNotFoundException();
 		}
+		// names of all users of all permissions, resolved at once
+		Map<Long, String> dlsUsers = userCache.dlsUsers(user.getTenant().getId(), directoryVOList.stream()
+				.flatMap(d -> d.getPermission().stream())
+				.flatMap(p -> Arrays.stream(ArrayUtils.add(p.getAcquiredUser(), p.getPermittedUser())))
+				.collect(Collectors.toSet()));
 
 
 
@@ -353,7 +485,7 @@ public class DirectoryService {
 							})
 							.flatMap(vo -> Flux.fromIterable(vo.getPermission()))
 							.groupBy(PermissionVO::getAction)
-							.map(this::collectPermissionByAction)
+							.map(p -> collectPermissionByAction(p, dlsUsers))
 							.subscribe(permissions::add);
 
 					response.add(Directory.builder()
@@ -379,6 +511,24 @@ public class DirectoryService {
 //		String meta = "624@key1=value1,622@key2=value2,622@key3=value3";
 //		System.out.println( maskPrivateMetadata(meta, UserVO.builder().id(622L).dlsUser("user1").build()));
 //	}
+
+	/**
+	 * Directories matching the pattern that the user is permitted on. A pattern <code>/path/*</code> of an
+	 * existing directory is answered from its subtree in <code>directory.tree_path</code>, other patterns with
+	 * <code>LIKE</code>.
+	 */
+	private List<DirectoryVO> findPermittedDirectories(UserVO user, String directory) {
+
+		Long tenantId = user.getTenant().getId();
+		String prefix = directory.endsWith("/*") ? directory.substring(0, directory.length() - 2) : null;
+		Long parentId = (null == prefix || prefix.isEmpty() || prefix.matches(".*[*%_\\\\].*"))
+				? null : directoryRepo.getIdByDirectory(tenantId, prefix);
+		if(null == parentId) {
+			return directoryRepo.getDirectoryNamesByPermittedUser(directory.replace('*','%'), tenantId, user.getId());
+		}
+		return directoryRepo.findPermittedDescendants(parentId, tenantId, user.getId());
+	}
+
 	private boolean applyMetadataQuery(List<DirectoryMetaVO> vos, String metadataQuery) {
 
 		if(metadataQuery == null) return true;
@@ -431,14 +581,13 @@ public class DirectoryService {
 //			throw new DlsPrivacyException();
 //		}
 		String parent = getParentDirectory(directory);;
-		if(!user.getAdmin() && permissionRepo.checkPermission(user.getId(), parent, "%"+Permission.Util.DIRECTORY_DELETE+"%") == 0) {
+		if(!user.getAdmin() && !aclIndex.hasPermission(user.getTenant().getId(), user.getId(), parent, Permission.Util.DIRECTORY_DELETE)) {
 			throw new DlsPrivacyException();
 		}
 
 		Long permittedUserId = (permittedUser == null) ? null :
-				Optional.ofNullable(userRepo.findByTenantAndDlsUser(user.getTenant(), permittedUser))
-				.orElseThrow(DlsNotFoundException::new)
-				.getId();
+				Optional.ofNullable(userCache.id(user.getTenant().getId(), permittedUser))
+				.orElseThrow(DlsNotFoundException::new);
 
 		DirectoryVO directoryVO = Optional.ofNullable(directory).map(d ->
 				directoryRepo.findByDirectoryIgnoreCaseAndTenantIdAndCreatedByIdAndDeleted(d, user.getTenant().getId(),
@@ -461,6 +610,8 @@ public class DirectoryService {
 				.collect(Collectors.toList());
 		permissionRepo.deleteAll(list);
 		permissionRepo.flush();
+		aclIndex.refresh(user.getTenant().getId());
+		catalogCache.invalidate(user.getTenant().getId());
 
 
 	}
@@ -471,7 +622,7 @@ public class DirectoryService {
 
 		UserVO user = uservice.authorize(apiKey, dlsKey);
 		String parent = getParentDirectory(directory);
-		if(!user.getAdmin() && permissionRepo.checkPermission(user.getId(), parent, "%"+Permission.Util.DIRECTORY_DELETE+"%") == 0) {
+		if(!user.getAdmin() && !aclIndex.hasPermission(user.getTenant().getId(), user.getId(), parent, Permission.Util.DIRECTORY_DELETE)) {
 			throw new DlsPrivacyException();
 		}
 
@@ -491,6 +642,8 @@ public class DirectoryService {
 
 		permissionRepo.deleteAll(directoryVO.getPermission());
 		directoryRepo.delete(directoryVO);
+		aclIndex.refresh(user.getTenant().getId());
+		catalogCache.invalidate(user.getTenant().getId());
 
 		return "Directory Successfully Deleted";	
 
@@ -537,7 +690,7 @@ public class DirectoryService {
 //		if(!user.getAdmin()) {
 //			throw new DlsPrivacyException();
 //		}
-		if(!user.getAdmin() && permissionRepo.checkPermission(user.getId(), directory, "%"+Permission.Util.DIRECTORY_CREATE+"%") == 0) {
+		if(!user.getAdmin() && !aclIndex.hasPermission(user.getTenant().getId(), user.getId(), directory, Permission.Util.DIRECTORY_CREATE)) {
 			throw new DlsPrivacyException();
 		}
 
@@ -551,9 +704,10 @@ public class DirectoryService {
 //				.collect(Collectors.toList()));
 
 		List <DlsResponse> errors = Lists.newArrayList();
+		Map<String, UserVO> users = directoryServiceHelper.findPermittedUsers(permissions, user);
 		List <DlsResponse> responses =
 				Flux.fromIterable(permissions)
-				.flatMap(p -> directoryServiceHelper.buildPermissionPerUser(p, user))
+				.flatMap(p -> directoryServiceHelper.buildPermissionPerUser(p, user, users))
 				.doOnNext(p -> p.setDirectory(directoryVO))
 				.doOnNext(p -> {
 					if(p.getPermittedUserName().equalsIgnoreCase(user.getDlsUser())) {
@@ -575,6 +729,8 @@ public class DirectoryService {
 								? e.getMessage() : "Permission ".concat(ALREADY_EXISTS)))
 						.build()))
 				.collect(Collectors.toList()).block();
+		aclIndex.refresh(user.getTenant().getId());
+		catalogCache.invalidate(user.getTenant().getId());
 
 		Optional.ofNullable(responses).ifPresent(errors::addAll);
 		return errors;
@@ -592,7 +748,7 @@ public class DirectoryService {
 //			throw new DlsPrivacyException();
 //		}
 		String parent = getParentDirectory(directory);
-		if(!user.getAdmin() && permissionRepo.checkPermission(user.getId(), parent, "%"+Permission.Util.DIRECTORY_DELETE+"%") == 0) {
+		if(!user.getAdmin() && !aclIndex.hasPermission(user.getTenant().getId(), user.getId(), parent, Permission.Util.DIRECTORY_DELETE)) {
 			throw new DlsPrivacyException();
 		}
 
@@ -624,7 +780,7 @@ public class DirectoryService {
 
 		UserVO user = uservice.authorize(apiKey, dlsKey);
 		TenantVO tenant = user.getTenant();
-		if(!user.getAdmin() && permissionRepo.checkPermission(user.getId(), directory, "%"+Permission.Util.DIRECTORY_CREATE+"%") == 0) {
+		if(!user.getAdmin() && !aclIndex.hasPermission(user.getTenant().getId(), user.getId(), directory, Permission.Util.DIRECTORY_CREATE)) {
 			throw new DlsPrivacyException();
 		}
 
@@ -680,7 +836,7 @@ public class DirectoryService {
 		UserVO user = uservice.authorize(apiKey, dlsKey);
 		TenantVO tenant = user.getTenant();
 		String parent = getParentDirectory(directory);
-		if(!user.getAdmin() && permissionRepo.checkPermission(user.getId(), parent, "%"+Permission.Util.DIRECTORY_DELETE+"%") == 0) {
+		if(!user.getAdmin() && !aclIndex.hasPermission(user.getTenant().getId(), user.getId(), parent, Permission.Util.DIRECTORY_DELETE)) {
 			throw new DlsPrivacyException();
 		}
 
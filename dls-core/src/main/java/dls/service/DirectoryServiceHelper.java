@@ -3,12 +3,12 @@ package dls.service;
 import com.diffplug.common.base.Errors;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import dls.bean.Directory;
 import dls.bean.MetaSchema;
 import dls.bean.MetadataRule;
 import dls.bean.Permission;
 import dls.exception.DlsValidationException;
-import dls.repo.MetaDataSchemaRepo;
 import dls.repo.UserRepo;
 import dls.vo.*;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,10 +32,19 @@ import static dls.util.BeanValidationConstraint.DIRECTORY_META_REGEX;
 public class DirectoryServiceHelper {
 
     @Autowired private UserRepo userRepo;
-    @Autowired private MetaDataSchemaRepo mdRepo;
+    @Autowired private TenantUserCache userCache;
+    @Autowired private MetaSchemaRegistry schemaRegistry;
     @Autowired private DlsServiceHelper dhelper;
 
     DirectoryVO buildDirectoryToVO(final Directory directory, UserVO user) {
+        return buildDirectoryToVO(directory, user, null, Maps.newHashMap());
+    }
+
+    /**
+     * @param users users named in the permissions by DLS user name, read if null
+     * @param acquired acquired users by user id, shared by the directories built in one request
+     */
+    DirectoryVO buildDirectoryToVO(final Directory directory, UserVO user, Map<String, UserVO> users, Map<Long, Long[]> acquired) {
 
         DirectoryVO target = DirectoryVO.builder()
                 .directory(directory.getDirectory())
@@ -44,7 +53,7 @@ public class DirectoryServiceHelper {
                 .tenant(user.getTenant())
                 .deleted(false)
                 .enforcementType(directory.getEnforcement())
-                .permission(buildPermissionVO(directory, user))
+                .permission(buildPermissionVO(directory, user, users, acquired))
                 .build();
 
 
@@ -93,7 +102,7 @@ public class DirectoryServiceHelper {
         return target;
     }
 
-    List<PermissionVO> buildPermissionVO(Directory directory, UserVO user) {
+    List<PermissionVO> buildPermissionVO(Directory directory, UserVO user, Map<String, UserVO> users, Map<Long, Long[]> acquired) {
 
         List<Permission> list = Optional.ofNullable(directory.getPermissions()).orElse(Lists.newArrayList());
         if(list.stream().flatMap(p -> p.getUsers().stream()).anyMatch(u -> u.equalsIgnoreCase(user.getDlsUser()))) {
@@ -103,15 +112,42 @@ public class DirectoryServiceHelper {
         list.add(Permission.builder().action("RWDABC")
                 .users(Lists.newArrayList(user.getDlsUser())).build());
 
+        Map<String, UserVO> permitted = (null == users) ? findPermittedUsers(list, user) : users;
         return Flux.fromIterable(list)
-                .flatMap(p -> buildPermissionPerUser(p, user)
+                .flatMap(p -> buildPermissionPerUser(p, user, permitted, acquired)
                 ).collect(Collectors.toList()).block();
     }
 
-    Flux<PermissionVO> buildPermissionPerUser(Permission p, UserVO user) {
+    /**
+     * Users named in the permissions, read with one query
+     *
+     * @return user by DLS user name, names of no user of the tenant are left out
+     */
+    Map<String, UserVO> findPermittedUsers(List<Permission> permissions, UserVO user) {
+
+        Map<String, UserVO> users = Maps.newHashMap();
+        users.put(user.getDlsUser(), user);
+        List<String> names = permissions.stream()
+                .flatMap(p -> Optional.ofNullable(p.getUsers()).orElse(Lists.newArrayList()).stream())
+                .filter(u -> null != u && !users.containsKey(u))
+                .distinct()
+                .collect(Collectors.toList());
+        if(!names.isEmpty()) {
+            List<UserVO> found = userRepo.findUserListForUsers(names, user.getTenant().getId());
+            userCache.put(found);
+            found.forEach(u -> users.put(u.getDlsUser(), u));
+        }
+        return users;
+    }
+
+    Flux<PermissionVO> buildPermissionPerUser(Permission p, UserVO user, Map<String, UserVO> users) {
+        return buildPermissionPerUser(p, user, users, Maps.newHashMap());
+    }
+
+    Flux<PermissionVO> buildPermissionPerUser(Permission p, UserVO user, Map<String, UserVO> users, Map<Long, Long[]> acquired) {
 
         return Flux.fromIterable(p.getUsers())
-                .map(u -> Optional.ofNullable(userRepo.findByTenantAndDlsUser(user.getTenant(), u))
+                .map(u -> Optional.ofNullable(users.get(u))
                         .orElseThrow(() -> new DlsValidationException("User '".concat(u).concat("' mentioned in permission does not exist"))))
                 .doOnNext(u -> validateOrgPosOfAdminAndUser(user.getOrgPosition(), u.getOrgPosition()))
                 .map(u -> PermissionVO.builder()
@@ -121,7 +157,7 @@ public class DirectoryServiceHelper {
                         .user(user)
                         .permittedUserName(u.getDlsUser())
                         .permittedUser(u.getId())
-                        .acquiredUser(findAcquiredUser(u))
+                        .acquiredUser(acquired.computeIfAbsent(u.getId(), id -> findAcquiredUser(u)))
                         .build());
     }
 
@@ -183,33 +219,22 @@ public class DirectoryServiceHelper {
             throw new DataIntegrityViolationException("mismatch.schema.count");
         }
 
-        Flux<MetaSchemaVO> schemaFlux = Flux.fromIterable(mdRepo.findByTenantId(tenant.getId()))
-                .cache();
-        Flux<DirectoryMetaVO> voFlux = Flux.fromIterable(rules)
+        MetaSchemaRegistry.TenantSchema schemas = schemaRegistry.get(tenant.getId());
+        List<DirectoryMetaVO> vos = rules.stream()
                 .map(this::buildDirectoryMetaVO)
-//				.doOnNext(vos::add)
-
-                .cache();
+                .collect(Collectors.toList());
 
 
         if(schematic && ! allowAdhoc) {
 
 
-            List <String> unmatchingMetadata = Lists.newArrayList();
+            List <String> unmatchingMetadata = vos.stream()
+                    .filter(r -> null == schemas.find(r.getName(), r.getType()))
+                    .map(r -> r.getName().concat("(").concat(r.getType()).concat(")"))
+                    .toList();
 
-            if(! voFlux
-                    .map(r -> {
-                        Boolean match = schemaFlux.any(s -> s.getName().equalsIgnoreCase(r.getName())
-                                && s.getType().equalsIgnoreCase(r.getType()))
-                                .blockOptional().orElse(Boolean.FALSE);
-                        if(!match) {
-                            unmatchingMetadata.add(r.getName().concat("(").concat(r.getType()).concat(")"));
-                        }
-                        return match;
-                    })
-
-                    .reduce((b1, b2) -> b1 && b2)
-                    .blockOptional().orElse(Boolean.FALSE))
+            // no rules at all is refused as well, as before
+            if(vos.isEmpty() || !unmatchingMetadata.isEmpty())
             {
                 String errMsg = "No schema exists for metadata "
                         .concat(Joiner.on(", ").skipNulls().join(unmatchingMetadata));
@@ -218,32 +243,23 @@ public class DirectoryServiceHelper {
 
         }
 
-        return voFlux
-                .doOnNext(r ->
-                        Optional.of(schemaFlux).ifPresent(schemaf -> {
-                            MetaSchemaVO schema =  schemaf.filter(s -> s.getName().equalsIgnoreCase(r.getName())
-                                    && s.getType().equalsIgnoreCase(r.getType()))
-                                    .blockFirst();
-                            r.setSchema(schema);
-                        })
-
-                )
-                .doOnNext(r -> {
-                    if(schematic ) {
-                        if(r.getName().length() > maxKeyLen) {
-                            throw new DataIntegrityViolationException("mismatch.schema.key.length");
-                        }
-                        int len = Optional.ofNullable(r.getValue()).map(String::length)
-                                .orElse(Optional.ofNullable(r.getValue_numeric())
-                                        .orElse(0D).toString().length());
-                        if(len > maxValueLen) {
-                            throw new DataIntegrityViolationException("mismatch.schema.val.length");
-                        }
-                    }
-                })
-                .collectList()
-                .block()
-                ;
+        for(DirectoryMetaVO r : vos) {
+            r.setSchema(Optional.ofNullable(schemas.find(r.getName(), r.getType()))
+                    .map(MetaSchemaRegistry.Entry::schema)
+                    .orElse(null));
+            if(schematic ) {
+                if(r.getName().length() > maxKeyLen) {
+                    throw new DataIntegrityViolationException("mismatch.schema.key.length");
+                }
+                int len = Optional.ofNullable(r.getValue()).map(String::length)
+                        .orElse(Optional.ofNullable(r.getValue_numeric())
+                                .orElse(0D).toString().length());
+                if(len > maxValueLen) {
+                    throw new DataIntegrityViolationException("mismatch.schema.val.length");
+                }
+            }
+        }
+        return vos;
 
 
 //		return vos;
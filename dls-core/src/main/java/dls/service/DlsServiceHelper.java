@@ -11,6 +11,7 @@ import dls.repo.*;
 import dls.vo.*;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
@@ -20,6 +21,8 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 import reactor.core.publisher.Flux;
 
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import jakarta.validation.constraints.NotNull;
 import java.io.File;
 import java.io.FileWriter;
@@ -28,8 +31,6 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Component
@@ -47,8 +48,6 @@ public class DlsServiceHelper {
 
 	private static final String KV_REGEX = "(public@|private@)?(([^\\s,=]+=[^,=]+)(?:,\\s*)?)+";
 
-	private static final Pattern pattern = Pattern.compile(KV_REGEX);
-
 	public static final int MAX_METADATA_COUNT = 1000;
 
 	public static final int MAX_KEY_LEN = 255;
@@ -66,9 +65,14 @@ public class DlsServiceHelper {
 	@Autowired private MetaDataSchemaRepo metaDataSchemaRepo;
 	@Autowired private DirectoryRepo directoryRepo;
 	@Autowired private PermissionRepo permissionRepo;
+	@Autowired private DirectoryAclIndex aclIndex;
+	@Autowired private CatalogResultCache catalogCache;
+	@PersistenceContext private EntityManager em;
 
 	@Value("${local.fs.bundle.path}") 
 	private String bundleFilePath;
+	@Value("${dls.directory.batch.size:500}")
+	private int directoryBatchSize;
 
 	public Map <String, String> validate(@NotNull String filename, String savepoint, String originalFileName, String... metadata) throws DlsValidationException {
 
@@ -95,73 +99,159 @@ public class DlsServiceHelper {
 
 			for(String m : metadata)
 			{
-				Matcher matcher = pattern.matcher(m);
-
-				if(! matcher.matches())
+				if(! isKvFormat(m))
 				{
 					throw new DlsValidationException("invalid.kv.format");
 				}
 
-				//Map <String, String> kvMap = Splitter.on(",").omitEmptyStrings().withKeyValueSeparator("=").split(m.replace("\"", " "));
+				// only the first pair of an entry is taken, up to the second '=' if there is one
+				int eq = m.indexOf('=');
+				int next = m.indexOf('=', eq + 1);
+				String k = unquoteAndTrim(m, 0, eq);
+				String value = removeFirst(unquoteAndTrim(m, eq + 1, next < 0 ? m.length() : next), "public@");
 
-				Map <String, String> kvMap = new HashMap<>();
+				if(! isMetadataKey(k)) {
+					throw new DlsValidationException("invalid.metadata.key");
+				}
 
+				if(k.length() > MAX_KEY_LEN) {
+					throw new DlsValidationException("invalid.metadata.key.max.length");
+				}
 
-				kvMap.put(m.replace("\"", " ").split("=")[0].trim(),
-						m.replace("\"", " ").split("=")[1].trim().replaceFirst("public@", ""));
+				if(k.length() < MIN_KEY_LEN) {
+					throw new DlsValidationException("invalid.metadata.key.min.length");
+				}
 
+				if(map.containsKey(k.startsWith("private@") ? k.substring("private@".length()) : k)) {
+					throw new DlsValidationException("duplicate.kv.key");
+				}
 
-				for(String k : kvMap.keySet()){
+				String v = value.trim();
+				if(! isMetadataValue(v)) {
+					throw new DlsValidationException("invalid.metadata.value");
+				}
 
-					k = k.trim();
-					if(!k.matches(METADATA_KEY_REGEX)) {
-						throw new DlsValidationException("invalid.metadata.key");
-					}
+				if(v.length() > MAX_VAL_LEN) {
+					throw new DlsValidationException("invalid.metadata.value.max.length");
+				}
 
+				if(v.length() < MIN_VAL_LEN) {
+					throw new DlsValidationException("invalid.metadata.value.min.length");
+				}
 
-					if(k.length() > MAX_KEY_LEN) {
-						throw new DlsValidationException("invalid.metadata.key.max.length");
-					}
+				if(k.equalsIgnoreCase(v)) {
+					throw new DlsValidationException("funny.metadata");
+				}
 
-					if(k.length() < MIN_KEY_LEN) {
-						throw new DlsValidationException("invalid.metadata.key.min.length");
-					}
+				map.put(k, value);
+			}
+		}
 
-					if(map.containsKey(k.replace("private@",""))) {
-						throw new DlsValidationException("duplicate.kv.key");
-					}
 
-					String v = kvMap.get(k);
-					v = v.trim();
-					if(!v.matches(METADATA_VAL_REGEX)) {
-						throw new DlsValidationException("invalid.metadata.value");
-					}
+		return map;
 
-					if(v.length() > MAX_VAL_LEN) {
-						throw new DlsValidationException("invalid.metadata.value.max.length");
-					}
+	}
 
-					if(v.length() < MIN_VAL_LEN) {
-						throw new DlsValidationException("invalid.metadata.value.min.length");
-					}
+	/**
+	 * Same as matching {@link #KV_REGEX}: one or more <code>key=value</code> pairs, optionally separated by a comma
+	 * and white space. A key has no white space, comma or '=', a value no comma or '='.
+	 */
+	static boolean isKvFormat(@NonNull String m) {
+
+		int eq = m.indexOf('=');
+		if(eq <= 0) return false;
+		for(int i = 0; i < eq; i++) {
+			char c = m.charAt(i);
+			if(isSpace(c) || c == ',') return false;
+		}
 
-					if(k.equalsIgnoreCase(v)) {
-						throw new DlsValidationException("funny.metadata");
-					}
+		while(true) {
+			int from = eq + 1;
+			int next = m.indexOf('=', from);
+			int end = next < 0 ? m.length() : next;
+			int comma = -1;
+			for(int i = from; i < end && comma < 0; i++) {
+				if(m.charAt(i) == ',') comma = i;
+			}
+			if(comma == from || end == from) return false;
 
+			if(next < 0) {
+				// the last value, may end with a comma and white space
+				for(int i = comma + 1; comma > 0 && i < end; i++) {
+					if(! isSpace(m.charAt(i))) return false;
 				}
+				return true;
+			}
 
+			if(comma < 0) {
+				// value and the next key run together, the key can not end with white space
+				if(end - from < 2 || isSpace(m.charAt(end - 1))) return false;
+			} else {
+				int i = comma + 1;
+				while(i < end && isSpace(m.charAt(i))) i++;
+				if(i == end) return false;
+				for(; i < end; i++) {
+					char c = m.charAt(i);
+					if(isSpace(c) || c == ',') return false;
+				}
+			}
+			eq = next;
+		}
+	}
 
+	/**
+	 * Same as matching {@link #METADATA_KEY_REGEX}
+	 */
+	static boolean isMetadataKey(String k) {
 
+		int i = k.startsWith("public@") ? "public@".length() : k.startsWith("private@") ? "private@".length() : 0;
+		if(i == k.length()) return false;
+		for(; i < k.length(); i++) {
+			char c = k.charAt(i);
+			if(! ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')) return false;
+		}
+		return true;
+	}
 
-				map.putAll(kvMap);
+	/**
+	 * Same as matching {@link #METADATA_VAL_REGEX}
+	 */
+	static boolean isMetadataValue(String v) {
 
+		if(v.isEmpty()) return false;
+		for(int i = 0; i < v.length(); i++) {
+			switch (v.charAt(i)) {
+				case '*', ',', '\'', '"', '=', '&', '!' -> {
+					return false;
+				}
+				default -> { }
 			}
 		}
+		return true;
+	}
 
+	/**
+	 * White space as in <code>\s</code> of a regex
+	 */
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
 
-		return map;
+	/**
+	 * Part of <code>s</code> with double quotes turned into blanks and then trimmed
+	 */
+	private static String unquoteAndTrim(String s, int from, int to) {
 
+		while(from < to && (s.charAt(from) <= ' ' || s.charAt(from) == '"')) from++;
+		while(to > from && (s.charAt(to - 1) <= ' ' || s.charAt(to - 1) == '"')) to--;
+		String part = s.substring(from, to);
+		return part.indexOf('"') < 0 ? part : part.replace('"', ' ');
+	}
+
+	private static String removeFirst(String s, String token) {
+
+		int i = s.indexOf(token);
+		return i < 0 ? s : s.substring(0, i) + s.substring(i + token.length());
 	}
 
 	public String generateDfsPath(UserVO user, String filename, String savepoint, Long directoryId)  {
@@ -420,7 +510,42 @@ public class DlsServiceHelper {
 		DirectoryVO saved = directoryRepo.save(directoryVO);
 		permissionVOS.forEach(p -> p.setDirectory(saved));
 		saved.setPermission(permissionRepo.saveAll(permissionVOS));
+		aclIndex.refresh(saved.getTenant().getId());
+		catalogCache.invalidate(saved.getTenant().getId());
 		return saved;
 
 	}
+
+	/**
+	 * Save directories of one tenant and their permissions with JDBC batching, all directories first and then
+	 * all permissions. Directories keep their permissions if the save fails.
+	 */
+	@Transactional("transactionManager")
+	public List<DirectoryVO> saveDirectoriesAndPermissions(List<DirectoryVO> directoryVOS) {
+
+		em.unwrap(Session.class).setJdbcBatchSize(directoryBatchSize);
+		List<List<PermissionVO>> permissions = directoryVOS.stream()
+				.map(d -> (List<PermissionVO>) Lists.newArrayList(d.getPermission()))
+				.toList();
+		directoryVOS.forEach(d -> d.setPermission(null));
+		try {
+			List<DirectoryVO> saved = directoryRepo.saveAll(directoryVOS);
+			directoryRepo.flush();
+			for(int i = 0; i < saved.size(); i++) {
+				DirectoryVO directory = saved.get(i);
+				permissions.get(i).forEach(p -> p.setDirectory(directory));
+			}
+			permissionRepo.saveAll(permissions.stream().flatMap(List::stream).toList());
+			permissionRepo.flush();
+			directoryVOS.stream().findFirst().ifPresent(d -> {
+				aclIndex.refresh(d.getTenant().getId());
+				catalogCache.invalidate(d.getTenant().getId());
+			});
+			return saved;
+		} finally {
+			for(int i = 0; i < directoryVOS.size(); i++) {
+				directoryVOS.get(i).setPermission(permissions.get(i));
+			}
+		}
+	}
 }
@@ -4,7 +4,6 @@ import com.diffplug.common.base.Errors;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import dls.bean.FileDescriptor;
-import dls.bean.MetaSchema;
 import dls.bean.Permission;
 import dls.exception.DlsNotFoundException;
 import dls.exception.DlsPrivacyException;
@@ -21,7 +20,6 @@ import org.springframework.data.domain.Example;
 import org.springframework.data.domain.ExampleMatcher;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
-import reactor.core.publisher.Flux;
 
 import java.io.IOException;
 import java.sql.Timestamp;
@@ -58,8 +56,13 @@ public class FileServiceHelper {
 	@Autowired private IFileManagementService dfsService;
 //	@Autowired private MetaDataSchemaService mdsService;
 	@Autowired private PermissionService permissionService;
-	@Autowired private MetaDataSchemaRepo metaDataSchemaRepo;
+	@Autowired private MetaSchemaRegistry schemaRegistry;
 	@Autowired private CatalogRepo catalogRepo;
+	@Autowired private StorageWriteQueue writeQueue;
+	@Autowired private ContentStore contentStore;
+	@Autowired private StorageQuotaService storageQuota;
+	@Autowired private CatalogResultCache catalogCache;
+	@Autowired private DirectoryAclIndex aclIndex;
 	protected static Map<String,String> mapOfMetaValStandardEnf = new HashMap<>();
 //	protected static Boolean standardEnfInsertMeta = false;
 	@Value("${web.hdfs.path}") 
@@ -85,8 +88,10 @@ public class FileServiceHelper {
 			String savepoint, MultipartFile file,
 			FileDescriptor.UploadMode mode, String directory, String[] metadata, UserVO user ,String comment ) throws IOException {
 
-		checkAvailableStorage(user.getTenant(), file.getSize());
+		String digest = (mode == APPEND) ? null : contentStore.digest(file);
+		writeQueue.checkCapacity();
 		String originalFileName = Optional.ofNullable(file).map(MultipartFile::getOriginalFilename).orElse(filename);
+		TenantVO tenant = user.getTenant();
 		Map <String, String>  props = dhelper.validate(filename, savepoint, originalFileName, metadata);
 
 		FileVO vo = FileVO.builder()
@@ -113,24 +118,32 @@ public class FileServiceHelper {
 		if((mode == OVERWRITE || mode == APPEND || mode == ARCHIVE) && null != vo.getLock()) {
 			throw new DataIntegrityViolationException("file.locked");
 		}
+		Long reservation = checkAvailableStorage(tenant, file.getSize(), digest);
+		// growth of the tenant's used storage, the lineage copy of an updated file keeps the previous size
+		long usedDelta = 0;
+		boolean completed = false;
 		try {			
 			switch (mode) {
 			case OVERWRITE: {
 				FileVO saved = checkAndUpdateFile(fsPath, user, meta, file.getSize(), mode, createdOn, comment);
-				dfsService.write(file, fsPath, saved.getId());
+				contentStore.write(file, fsPath, saved, tenant, digest, originalFileName);
+				usedDelta = (null == reservation) ? 0 : file.getSize();
 				break;
 			}
 			case APPEND: {
 				FileVO saved = checkAndUpdateFile(fsPath, user, meta, file.getSize(), mode, createdOn, comment);
+				usedDelta = (null == reservation) ? 0 : file.getSize();
 //				if(!enableHDFS) {
-					dfsService.append(saved.getFsPath(),file);
+					dfsService.append(contentStore.resolveForAppend(saved.getId(), saved.getFsPath(), file.getSize()),file);
 //				} else {
 //					dfsService.appendToHDFS(fsPath, file);
 //				}
 				break;
 			}
 			case ARCHIVE: {
-				checkAndUpdateFile(fsPath, user, meta, file.getSize(), mode, createdOn, comment);
+				FileVO archived = checkAndUpdateFile(fsPath, user, meta, file.getSize(), mode, createdOn, comment);
+				// content addressed bytes stay where they are, only the logical path of the archived file changes
+				boolean contentAddressed = contentStore.isReferenced(archived.getId());
 				vo.setMeta(meta);
 				if(enableAzureBlob) {
 					vo.setStorage("B");
@@ -145,13 +158,14 @@ public class FileServiceHelper {
 						.build());
 				FileVO saved = fileRepo.saveAndFlush(vo);
 				if(!enableHDFS) {
-					if(dfsService.archive(fsPath, createdOn)) {
-						dfsService.write(file, fsPath, saved.getId());
+					if(contentAddressed || dfsService.archive(fsPath, createdOn)) {
+						contentStore.write(file, fsPath, saved, tenant, digest, originalFileName);
 					}
 				}
-				else if(dfsService.archive(fsPath, createdOn)) {
-					dfsService.write(file, fsPath, saved.getId());
+				else if(contentAddressed || dfsService.archive(fsPath, createdOn)) {
+					contentStore.write(file, fsPath, saved, tenant, digest, originalFileName);
 				}
+				usedDelta = (null == reservation) ? 0 : file.getSize();
 				break;
 			}
 			case RESTRICT : default : {
@@ -170,12 +184,20 @@ public class FileServiceHelper {
 				{
 					addComment(comment, saved, user);
 				}
-				dfsService.write(file, fsPath, saved.getId());
+				contentStore.write(file, fsPath, saved, tenant, digest, originalFileName);
+				usedDelta = (null == reservation) ? 0 : file.getSize();
 				break;
 			}
 			}
+			storageQuota.complete(reservation, tenant.getId(), usedDelta);
+			catalogCache.invalidate(tenant.getId());
+			completed = true;
 		} catch (DataIntegrityViolationException e) {
 			throw new DataIntegrityViolationException((e.getMessage() == null) ? "already.exists" : e.getMessage());
+		} finally {
+			if(!completed) {
+				storageQuota.cancel(reservation);
+			}
 		}
 
 		return fsPath;
@@ -195,15 +217,18 @@ public class FileServiceHelper {
 		if(null == directory) {
 			return null;
 		}
-		return Optional
-				.ofNullable(directoryRepo.getDirectoryByPermittedUser(directory, user.getTenant().getId(), user.getId()))
+		// the permission is decided from the ACL index, only the directory granted is read for its rules
+		DirectoryAclIndex.TenantAcl acl = aclIndex.get(user.getTenant().getId());
+		Long directoryId = acl.permittedDirectoryId(user.getId(), directory);
+		if(null == directoryId) {
+			throw new DataIntegrityViolationException("source.directory.notPresent");
+		}
+		if(!acl.isPermitted(user.getId(), directory, 'W')) {
+			throw new DataIntegrityViolationException("no.write.privilege");
+		}
+		return directoryRepo.findById(directoryId)
+				.filter(d -> !Optional.ofNullable(d.getDeleted()).orElse(Boolean.FALSE))
 				.map(d -> {
-					if(d.getPermission()
-							.stream()
-							.noneMatch(p -> p.getAction().contains("W") &&
-									Lists.newArrayList(p.getAcquiredUser(), p.getPermittedUser()).contains(user.getId()))) {
-						throw new DataIntegrityViolationException("no.write.privilege");
-					}
 					dhelper.complyDirectoryMetadataRule(d, fileMetaVOS, file, user);
 					return d;
 				})
@@ -211,16 +236,21 @@ public class FileServiceHelper {
 
 	}
 
-	void checkAvailableStorage(TenantVO tenantVO, Long fileSize) {
+	Long checkAvailableStorage(TenantVO tenantVO, Long fileSize) {
+		return checkAvailableStorage(tenantVO, fileSize, null);
+	}
 
-		Long allocatedStorage = Optional.ofNullable(tenantVO.getAllocatedStorage()).orElse(Long.MAX_VALUE);
-		Long usedStorage = Optional.ofNullable(fileRepo.getUsedStorage(tenantVO.getId())).orElse(0L);
-		Long availableStorage = allocatedStorage - usedStorage;
+	/**
+	 * Reserve storage for an upload. Content the tenant already stores is shared by the new file and takes
+	 * no additional storage.
+	 * @return id of the reservation, null if nothing was reserved
+	 */
+	Long checkAvailableStorage(TenantVO tenantVO, Long fileSize, String digest) {
 
-		if(availableStorage < fileSize) {
-			throw new DataIntegrityViolationException("insufficient.storage");
+		if(contentStore.exists(tenantVO.getId(), digest)) {
+			return null;
 		}
-
+		return storageQuota.reserve(tenantVO, fileSize);
 	}
 
 	List<FileMetaVO> matchSchemaAndBuildMetadata(UserVO user, FileVO file, Map <String, String> props) {
@@ -228,9 +258,9 @@ public class FileServiceHelper {
 
 
 		TenantVO tenant = user.getTenant();
-		Flux<MetaSchemaVO> schemaFlux = Flux.fromIterable(metaDataSchemaRepo.findByTenantId(tenant.getId()));
+		MetaSchemaRegistry.TenantSchema schemas = schemaRegistry.get(tenant.getId());
 
-		Flux<FileMetaVO> voFlux = Flux.fromIterable(props.keySet())
+		List<FileMetaVO> vos = props.keySet().stream()
 				.map(p -> {
 					String privacy = null;
 					String keyName;
@@ -275,7 +305,7 @@ public class FileServiceHelper {
 					}
 					return metaVO;
 				})
-				.cache();
+				.collect(Collectors.toList());
 
 		boolean schematic = Optional.ofNullable(tenant.getSchematic()).orElse(Boolean.FALSE);
 		boolean allowAdhoc = Optional.ofNullable(tenant.getAllowAdhoc()).orElse(Boolean.FALSE);
@@ -288,44 +318,31 @@ public class FileServiceHelper {
 		}
 		if( schematic && !allowAdhoc ) {
 
-			voFlux
-					.map(r -> schemaFlux.any(s -> s.getName().equalsIgnoreCase(r.getName()))
-							.block())
-					.reduce((b1, b2) -> b1 && b2)
-					.blockOptional()
-					.ifPresent(b -> {
-						if(!b) throw new DataIntegrityViolationException("mismatch.schema.rule");
-					});
+			if(vos.stream().anyMatch(r -> null == schemas.find(r.getName()))) {
+				throw new DataIntegrityViolationException("mismatch.schema.rule");
+			}
 
 		}
 
-		return voFlux
-				.map(r -> {
-						if(schematic &&! allowAdhoc) {
-
-							MetaSchemaVO schema = Objects.requireNonNull(
-										schemaFlux
-												.filter(s -> s.getName().equalsIgnoreCase(r.getName()))
-												.blockFirst());
-								r.setSchema(schema);
-								if(MetaSchema.MetadataType.NUMERIC.name().equalsIgnoreCase(schema.getType())) {
-									r.setValue_numeric(Errors.suppress().getWithDefault(()->Double.valueOf(r.getValue()), null));
-								}
-						}
-							return r;
-						}
-				)
-				.doOnNext(r -> {
-					if(schematic ) {
-						if(r.getName().length() > maxKeyLen) {
-							throw new DataIntegrityViolationException("mismatch.schema.key.length");
-						}
-						if(r.getValue().length() > maxValueLen) {
-							throw new DataIntegrityViolationException("mismatch.schema.val.length");
-						}
-					}
-				})
-				.collectList().block();
+		for(FileMetaVO r : vos) {
+			if(schematic &&! allowAdhoc) {
+
+				MetaSchemaRegistry.Entry schema = schemas.find(r.getName());
+				r.setSchema(schema.schema());
+				if(schema.isNumeric()) {
+					r.setValue_numeric(Errors.suppress().getWithDefault(()->Double.valueOf(r.getValue()), null));
+				}
+			}
+			if(schematic ) {
+				if(r.getName().length() > maxKeyLen) {
+					throw new DataIntegrityViolationException("mismatch.schema.key.length");
+				}
+				if(r.getValue().length() > maxValueLen) {
+					throw new DataIntegrityViolationException("mismatch.schema.val.length");
+				}
+			}
+		}
+		return vos;
 
 	}
 	
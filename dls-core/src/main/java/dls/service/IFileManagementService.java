@@ -12,15 +12,34 @@ import java.io.IOException;
  */
 public interface IFileManagementService {
 	/**
-	 * Write a file uploaded by user to disk.
+	 * Write a file uploaded by user to disk. Backends that support it stream the bytes
+	 * straight to storage and use the local failsafe path only when storage is unreachable.
 	 * @param multipart
 	 * @param fsPath
 	 * @param fileId
 	 */
 	void write(@NonNull MultipartFile multipart, final String fsPath, final Long fileId);
 	void writeBundle(@NonNull File bundleFile, String fsPath, final Long fileId);
+	/**
+	 * Copy a file spooled on local disk to storage, used by {@link StorageWriteQueue}.
+	 * The local file is left in place and removed by the caller.
+	 * @param localFile
+	 * @param fsPath
+	 * @param fileId
+	 */
+	void store(@NonNull File localFile, String fsPath, final Long fileId) throws IOException;
+	/**
+	 * @return storage code recorded on files written by this backend
+	 */
+	String getStorage();
 	void append(@NonNull String fsPath, @NonNull MultipartFile multipartFile) throws IOException;
 	void delete(boolean recursive, String fsPath);
+	/**
+	 * Move a stored file to another path, creating its directory if needed
+	 * @param srcPath
+	 * @param destPath
+	 */
+	void move(@NonNull String srcPath, @NonNull String destPath) throws IOException;
 	boolean archive(@NonNull String fsPath, String createdOn) throws IOException;
 	void renameDirectory(@NonNull String srcDir, @NonNull String destDir) throws IOException;
 }
@@ -0,0 +1,187 @@
+package dls.service;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import dls.exception.DlsValidationException;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.*;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Keyset pagination of specification queries, as an alternative to <code>pageNo</code>/<code>pageSize</code>.
+ * <p>
+ * Results are ordered by the requested sort with <code>id</code> appended so the order is total. The next page
+ * starts after the sort values of the last row of the current one, which travel to the client in an opaque
+ * continuation token, so no page is found by skipping the rows before it. Counting all results is optional.
+ * Null sort values are ordered as PostgreSQL does by default, last when ascending and first when descending.
+ */
+@Component
+public class KeysetPager {
+
+	private static final String ID = "id";
+	private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+	private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+	@PersistenceContext private EntityManager em;
+
+	/**
+	 * @param content rows of the page
+	 * @param nextToken token of the next page, null on the last page
+	 * @param count number of all results, null if not requested
+	 */
+	public record KeysetPage<T>(List<T> content, String nextToken, Long count) {}
+
+	/**
+	 * @param sort sort of the results, <code>id</code> is added as the last key
+	 * @param token continuation token of the previous page, null for the first page
+	 */
+	public <T> KeysetPage<T> page(Class<T> type, Specification<T> spec, Sort sort, String token, int size, boolean count) {
+
+		if(size < 1) {
+			throw new DlsValidationException("Invalid page size");
+		}
+		List<Sort.Order> orders = Lists.newArrayList(sort.filter(o -> !ID.equals(o.getProperty())));
+		Sort.Direction last = orders.isEmpty() ? Sort.Direction.ASC : orders.get(orders.size() - 1).getDirection();
+		orders.add(new Sort.Order(last, ID));
+		String signature = signature(orders);
+
+		CriteriaBuilder cb = em.getCriteriaBuilder();
+		CriteriaQuery<T> cq = cb.createQuery(type);
+		Root<T> root = cq.from(type);
+		List<Predicate> predicates = Lists.newArrayList();
+		Optional.ofNullable(spec).map(s -> s.toPredicate(root, cq, cb)).ifPresent(predicates::add);
+		if(null != token && !token.isBlank()) {
+			predicates.add(after(root, cb, orders, decode(token, signature, orders.size())));
+		}
+		cq.select(root).where(predicates.toArray(new Predicate[0]));
+		cq.orderBy(QueryUtils.toOrders(Sort.by(orders), root, cb));
+
+		// one more row than asked tells whether there is a next page
+		List<T> rows = em.createQuery(cq).setMaxResults(size + 1).getResultList();
+		String nextToken = null;
+		if(rows.size() > size) {
+			rows = rows.subList(0, size);
+			nextToken = encode(rows.get(size - 1), signature, orders);
+		}
+		return new KeysetPage<>(rows, nextToken, count ? count(type, spec) : null);
+	}
+
+	private <T> Long count(Class<T> type, Specification<T> spec) {
+
+		CriteriaBuilder cb = em.getCriteriaBuilder();
+		CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+		Root<T> root = cq.from(type);
+		Optional.ofNullable(spec).map(s -> s.toPredicate(root, cq, cb)).ifPresent(cq::where);
+		return em.createQuery(cq.select(cb.count(root))).getSingleResult();
+	}
+
+	/**
+	 * Rows after the given sort values: for some key, all keys before it are equal and the key itself is after
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <T> Predicate after(Root<T> root, CriteriaBuilder cb, List<Sort.Order> orders, List<Object> values) {
+
+		List<Predicate> any = Lists.newArrayList();
+		for(int i = 0; i < orders.size(); i++) {
+			List<Predicate> all = Lists.newArrayList();
+			for(int j = 0; j < i; j++) {
+				Path path = root.get(orders.get(j).getProperty());
+				all.add(null == values.get(j) ? cb.isNull(path) : cb.equal(path, values.get(j)));
+			}
+			Path path = root.get(orders.get(i).getProperty());
+			Comparable value = (Comparable) values.get(i);
+			if(orders.get(i).isAscending()) {
+				// nulls come last, nothing is after them
+				if(null == value) continue;
+				all.add(cb.or(cb.greaterThan(path, value), cb.isNull(path)));
+			} else {
+				// nulls come first
+				all.add(null == value ? cb.isNotNull(path) : cb.lessThan(path, value));
+			}
+			any.add(cb.and(all.toArray(new Predicate[0])));
+		}
+		return any.isEmpty() ? cb.disjunction() : cb.or(any.toArray(new Predicate[0]));
+	}
+
+	private static String signature(List<Sort.Order> orders) {
+
+		return Joiner.on(',').join(orders.stream().map(o -> o.getProperty() + ':' + o.getDirection()).toList());
+	}
+
+	private static String encode(Object row, String signature, List<Sort.Order> orders) {
+
+		BeanWrapper bean = PropertyAccessorFactory.forBeanPropertyAccess(row);
+		List<String> parts = Lists.newArrayList(base64(signature));
+		orders.forEach(o -> parts.add(encodeValue(bean.getPropertyValue(o.getProperty()))));
+		return Joiner.on('.').join(parts);
+	}
+
+	private static List<Object> decode(String token, String signature, int keys) {
+
+		try {
+			List<String> parts = Splitter.on('.').splitToList(token);
+			if(parts.size() != keys + 1 || !signature.equals(unbase64(parts.get(0)))) {
+				throw new DlsValidationException("Continuation token does not match the query sort");
+			}
+			return parts.subList(1, parts.size()).stream().map(KeysetPager::decodeValue).toList();
+		} catch (DlsValidationException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw new DlsValidationException("Invalid continuation token");
+		}
+	}
+
+	/**
+	 * A value is its type tag followed by its text in base64, nanoseconds of timestamps are kept
+	 */
+	private static String encodeValue(Object value) {
+
+		if(null == value) return "n";
+		if(value instanceof Timestamp t) return "t" + base64(t.toInstant().toString());
+		if(value instanceof Long) return "l" + base64(value.toString());
+		if(value instanceof Integer) return "i" + base64(value.toString());
+		if(value instanceof Double) return "d" + base64(value.toString());
+		if(value instanceof Character) return "c" + base64(value.toString());
+		if(value instanceof Boolean) return "b" + base64(value.toString());
+		return "s" + base64(value.toString());
+	}
+
+	private static Object decodeValue(String part) {
+
+		if(part.isEmpty()) throw new IllegalArgumentException(part);
+		if("n".equals(part)) return null;
+		String text = unbase64(part.substring(1));
+		return switch (part.charAt(0)) {
+			case 't' -> Timestamp.from(Instant.parse(text));
+			case 'l' -> Long.valueOf(text);
+			case 'i' -> Integer.valueOf(text);
+			case 'd' -> Double.valueOf(text);
+			case 'c' -> text.charAt(0);
+			case 'b' -> Boolean.valueOf(text);
+			case 's' -> text;
+			default -> throw new IllegalArgumentException(part);
+		};
+	}
+
+	private static String base64(String s) {
+		return ENCODER.encodeToString(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String unbase64(String s) {
+		return new String(DECODER.decode(s), StandardCharsets.UTF_8);
+	}
+}
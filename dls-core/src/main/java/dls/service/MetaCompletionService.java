@@ -0,0 +1,77 @@
+package dls.service;
+
+import dls.repo.FileMetaRepo;
+import dls.vo.UserVO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Suggestions for metadata keys and values as they are typed.
+ * <p>
+ * Answered from <code>meta_key_completion</code> and <code>meta_value_completion</code>, which hold the number
+ * of occurrences of each key and value in a tenant, so a suggestion reads only the index entries under the
+ * prefix typed. Private metadata is suggested to its owner only, internal <code>dls:</code> metadata to no one.
+ * <p>
+ * Triggers on <code>file_meta</code> only append the rows written to <code>meta_completion_delta</code>, so
+ * uploads do not wait for each other on popular keys. They are added to the completions every
+ * <code>dls.meta.completion.fold.ms</code>, <code>dls.meta.completion.fold.batch</code> at a time.
+ */
+@Service
+public class MetaCompletionService {
+
+	@Autowired private FileMetaRepo fileMetaRepo;
+
+	@Value("${dls.meta.completion.max:50}")
+	private int maxCompletions;
+	@Value("${dls.meta.completion.fold.batch:10000}")
+	private int foldBatchSize;
+
+	public record Completion(String text, long occurrences) {}
+
+	/**
+	 * @return the most used keys starting with <code>prefix</code>, ignoring case
+	 */
+	public List<Completion> completeKeys(UserVO user, String prefix, int limit) {
+
+		return toCompletions(fileMetaRepo.completeKeys(user.getTenant().getId(), user.getId(),
+				toPrefixPattern(prefix), Math.min(Math.max(limit, 1), maxCompletions)));
+	}
+
+	/**
+	 * @return the most used values of <code>key</code> starting with <code>prefix</code>, ignoring case
+	 */
+	public List<Completion> completeValues(UserVO user, String key, String prefix, int limit) {
+
+		return toCompletions(fileMetaRepo.completeValues(user.getTenant().getId(), user.getId(), key,
+				toPrefixPattern(prefix), Math.min(Math.max(limit, 1), maxCompletions)));
+	}
+
+	@Scheduled(fixedDelayString = "${dls.meta.completion.fold.ms:5000}")
+	public void fold() {
+
+		int folded;
+		do {
+			folded = fileMetaRepo.foldCompletions(foldBatchSize);
+		} while(folded == foldBatchSize);
+	}
+
+	private static String toPrefixPattern(String prefix) {
+
+		return Optional.ofNullable(prefix).orElse("").toLowerCase(Locale.ROOT)
+				.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+	}
+
+	private static List<Completion> toCompletions(List<Map<String, Object>> rows) {
+
+		return rows.stream()
+				.map(r -> new Completion((String) r.get("text"), ((Number) r.get("occurrences")).longValue()))
+				.toList();
+	}
+}
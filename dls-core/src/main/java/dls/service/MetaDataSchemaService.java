@@ -41,6 +41,7 @@ public class MetaDataSchemaService {
 	public static final String IRI_TYPE = "IRI";
 	@Autowired private UserService uservice;
 	@Autowired private MetaDataSchemaRepo metaDataSchemaRepo;
+	@Autowired private MetaSchemaRegistry schemaRegistry;
 	@Autowired private TenantRepo tenantRepo;
 //	@Autowired private DlsServiceHelper hService;
 	@Autowired private RelationRepo relationRepo;
@@ -150,6 +151,7 @@ public class MetaDataSchemaService {
 							}
 						})
 		);
+		schemaRegistry.invalidate(user.getTenant().getId());
 
 		return responses;
 
@@ -189,6 +191,7 @@ public class MetaDataSchemaService {
 		vo.setDeleted(true);
 		vo.setDeletedOn(Timestamp.from(Instant.now()));
 		metaDataSchemaRepo.save(vo);
+		schemaRegistry.invalidate(user.getTenant().getId());
 
 	}
 
@@ -214,6 +217,7 @@ public class MetaDataSchemaService {
 			vo.setDeleted(true);
 			metaDataSchemaRepo.save(vo);
 		});
+		schemaRegistry.invalidate(tenantVO.getId());
 
 	}
 
@@ -262,6 +266,7 @@ public class MetaDataSchemaService {
 				.description(vocabularyLink)
 				.type(IRI_TYPE)
 				.build());
+		schemaRegistry.invalidate(user.getTenant().getId());
 
     }
 
@@ -287,5 +292,6 @@ public class MetaDataSchemaService {
 			.orElseThrow(DlsNotFoundException::new);
 
 		metaDataSchemaRepo.delete(obj);
+		schemaRegistry.invalidate(user.getTenant().getId());
 	}
 }
@@ -0,0 +1,127 @@
+package dls.service;
+
+import dls.bean.MetaSchema;
+import dls.repo.MetaDataSchemaRepo;
+import dls.vo.MetaSchemaVO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In memory index of the metadata schema of each tenant, looked up by name ignoring case.
+ * <p>
+ * A tenant's schema is loaded once per version. {@link MetaDataSchemaService} moves the version on after a
+ * change is committed, and entries older than <code>dls.schema.registry.ttl.ms</code> are reloaded so
+ * changes made through another DLS instance are seen as well.
+ */
+@Component
+public class MetaSchemaRegistry {
+
+	@Autowired private MetaDataSchemaRepo metaDataSchemaRepo;
+
+	@Value("${dls.schema.registry.ttl.ms:60000}")
+	private long ttlMillis;
+
+	private final Map<Long, AtomicLong> versions = new ConcurrentHashMap<>();
+	private final Map<Long, TenantSchema> schemas = new ConcurrentHashMap<>();
+
+	public record Entry(MetaSchemaVO schema, MetaSchema.MetadataType type) {
+
+		public boolean isNumeric() {
+			return MetaSchema.MetadataType.NUMERIC == type;
+		}
+	}
+
+	public static final class TenantSchema {
+
+		private final long version;
+		private final long loadedAt;
+		private final Map<String, Entry> byName;
+		private final Map<String, Entry> byNameAndType;
+
+		TenantSchema(long version, List<MetaSchemaVO> vos) {
+
+			this.version = version;
+			this.loadedAt = System.currentTimeMillis();
+			Map<String, Entry> names = new HashMap<>(vos.size() * 2);
+			Map<String, Entry> typed = new HashMap<>(vos.size() * 2);
+			// the first schema of a name wins, as a scan of the list would find it
+			vos.forEach(vo -> {
+				Entry entry = new Entry(vo, resolve(vo.getType()));
+				names.putIfAbsent(key(vo.getName()), entry);
+				typed.putIfAbsent(key(vo.getName(), vo.getType()), entry);
+			});
+			this.byName = Collections.unmodifiableMap(names);
+			this.byNameAndType = Collections.unmodifiableMap(typed);
+		}
+
+		public Entry find(String name) {
+			return (null == name) ? null : byName.get(key(name));
+		}
+
+		public Entry find(String name, String type) {
+			return (null == name || null == type) ? null : byNameAndType.get(key(name, type));
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		private static String key(String name) {
+			return name.toLowerCase(Locale.ROOT);
+		}
+
+		private static String key(String name, String type) {
+			return key(name) + '\u0000' + key(type);
+		}
+
+		private static MetaSchema.MetadataType resolve(String type) {
+
+			return Arrays.stream(MetaSchema.MetadataType.values())
+					.filter(t -> t.name().equalsIgnoreCase(type))
+					.findFirst()
+					.orElse(null);
+		}
+	}
+
+	public TenantSchema get(Long tenantId) {
+
+		long version = version(tenantId).get();
+		TenantSchema schema = schemas.get(tenantId);
+		if(null != schema && schema.version == version
+				&& System.currentTimeMillis() - schema.loadedAt < ttlMillis) {
+			return schema;
+		}
+		// loaded under the version read before the query, a change committed meanwhile forces another load
+		schema = new TenantSchema(version, metaDataSchemaRepo.findByTenantId(tenantId));
+		schemas.put(tenantId, schema);
+		return schema;
+	}
+
+	/**
+	 * Drop the schema of a tenant, once the current transaction commits if there is one
+	 */
+	public void invalidate(Long tenantId) {
+
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					version(tenantId).incrementAndGet();
+				}
+			});
+		} else {
+			version(tenantId).incrementAndGet();
+		}
+	}
+
+	private AtomicLong version(Long tenantId) {
+		return versions.computeIfAbsent(tenantId, k -> new AtomicLong());
+	}
+}
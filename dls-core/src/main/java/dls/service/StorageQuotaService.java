@@ -0,0 +1,117 @@
+package dls.service;
+
+import dls.repo.TenantStorageRepo;
+import dls.vo.TenantStorageVO;
+import dls.vo.TenantVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Per tenant storage counters used for quota checks.
+ * <p>
+ * Uploads reserve their size up front, the reservation becomes used storage when the file is stored and is
+ * dropped when the upload fails. Reservations of uploads that never finished expire. The counters are
+ * recomputed from the stored files periodically to correct drift, e.g. from files removed elsewhere.
+ */
+@Slf4j
+@Service
+public class StorageQuotaService {
+
+	@Autowired private TenantStorageRepo tenantStorageRepo;
+	@Autowired private ContentStore contentStore;
+	@Autowired private PlatformTransactionManager transactionManager;
+
+	@Value("${dls.storage.reservation.ttl.ms:3600000}")
+	private long reservationTtlMillis;
+
+	/**
+	 * @return id of the reservation, null if nothing is reserved
+	 * @throws DataIntegrityViolationException insufficient.storage if the tenant has no room for the upload
+	 */
+	public Long reserve(TenantVO tenant, long size) {
+
+		if(size <= 0) return null;
+		if(!tenantStorageRepo.existsById(tenant.getId())) {
+			tenantStorageRepo.initialize(tenant.getId(), contentStore.getUsedStorage(tenant.getId()));
+		}
+		Long allocatedStorage = Optional.ofNullable(tenant.getAllocatedStorage()).orElse(Long.MAX_VALUE);
+		Long reservation = tenantStorageRepo.reserve(tenant.getId(), size, allocatedStorage);
+		if(null == reservation) {
+			throw new DataIntegrityViolationException("insufficient.storage");
+		}
+		return reservation;
+	}
+
+	/**
+	 * Release the reservation and add <code>delta</code> to the used storage of the tenant
+	 */
+	public void complete(Long reservation, Long tenantId, long delta) {
+
+		if(null == reservation && delta == 0) return;
+		tenantStorageRepo.complete(reservation, tenantId, delta);
+	}
+
+	public void cancel(Long reservation) {
+
+		if(null != reservation) {
+			tenantStorageRepo.cancel(reservation);
+		}
+	}
+
+	/**
+	 * Change the used storage of a tenant, negative when files are removed
+	 */
+	public void adjust(Long tenantId, long delta) {
+
+		if(delta != 0) {
+			tenantStorageRepo.adjust(tenantId, delta);
+		}
+	}
+
+	public Long getUsedStorage(Long tenantId) {
+
+		return tenantStorageRepo.findById(tenantId)
+				.map(TenantStorageVO::getUsedBytes)
+				.orElseGet(() -> contentStore.getUsedStorage(tenantId));
+	}
+
+	@Scheduled(fixedDelayString = "${dls.storage.reconcile.ms:3600000}", initialDelay = 300000)
+	public void reconcile() {
+
+		int expired = tenantStorageRepo.expireReservations(Timestamp.from(Instant.now().minusMillis(reservationTtlMillis)));
+		if(expired > 0) {
+			log.warn("{} storage reservations expired", expired);
+		}
+		TransactionTemplate tx = new TransactionTemplate(transactionManager);
+		tenantStorageRepo.findAll().forEach(t -> tx.executeWithoutResult(status -> reconcile(t.getTenantId())));
+	}
+
+	/**
+	 * Recompute the used storage of a tenant while its counters are locked. Uploads committed before are part of
+	 * the recomputed usage, uploads completing meanwhile wait and add their change to it afterwards.
+	 */
+	private void reconcile(Long tenantId) {
+
+		if(!tenantStorageRepo.tryReconcileLock(tenantId)) {
+			log.debug("Storage counters of tenant {} reconciled by another instance", tenantId);
+			return;
+		}
+		Long counted = tenantStorageRepo.lockUsedBytes(tenantId);
+		if(null == counted) return;
+		Long used = contentStore.getUsedStorage(tenantId);
+		if(!used.equals(counted)) {
+			log.warn("Storage counter of tenant {} drifted by {} bytes", tenantId, counted - used);
+		}
+		tenantStorageRepo.reconcile(tenantId, used);
+	}
+}
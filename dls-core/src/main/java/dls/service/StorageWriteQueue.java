@@ -0,0 +1,298 @@
+package dls.service;
+
+import dls.repo.FileRepo;
+import dls.repo.StorageJobRepo;
+import dls.vo.StorageJobVO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous write stage between the upload request and the storage backend.
+ * <p>
+ * The upload is spooled to local disk and a {@link StorageJobVO} is saved in the same transaction as the
+ * file metadata, so the request returns once the metadata is committed. Jobs are claimed from the database
+ * by a bounded pool of workers, at most as many per backend as its configured concurrency, and retried
+ * with exponential backoff. Jobs survive a restart.
+ * <p>
+ * The spool is local to the instance unless <code>dls.storage.write.shared.spool</code> says that
+ * <code>local.fs.queue.path</code> is shared by all instances. A job of a local spool records the
+ * <code>dls.node.id</code> of its instance, the host name by default, and is only claimed by that instance,
+ * after a restart as well. Running jobs renew their lease every <code>dls.storage.write.heartbeat.ms</code>,
+ * jobs whose lease is older than <code>dls.storage.write.stale.ms</code> are queued again.
+ * <p>
+ * The spooled file is removed only once the file is marked uploaded and its job deleted, so a job retried
+ * after a failure in between still finds it. A job that fails for good keeps its spooled file, recorded in
+ * the job, for manual recovery during <code>dls.storage.write.failed.retention.ms</code>, then both are removed.
+ */
+@Slf4j
+@Service
+public class StorageWriteQueue {
+
+	@Autowired private StorageJobRepo storageJobRepo;
+	@Autowired private FileRepo fileRepo;
+	@Lazy @Autowired private IFileManagementService dfsService;
+	@Autowired private PlatformTransactionManager transactionManager;
+
+	@Value("${dls.storage.write.async:false}")
+	private Boolean enabled;
+	@Value("${local.fs.queue.path:${local.fs.failsafe.path}_queue}")
+	private String queuePath;
+	@Value("${dls.storage.write.workers:8}")
+	private int workers;
+	@Value("#{${dls.storage.write.backend.concurrency:{H:8,B:8}}}")
+	private Map<String, Integer> backendConcurrency;
+	@Value("${dls.storage.write.max.pending:10000}")
+	private long maxPending;
+	@Value("${dls.storage.write.max.attempts:8}")
+	private int maxAttempts;
+	@Value("${dls.storage.write.backoff.ms:2000}")
+	private long backoffMillis;
+	@Value("${dls.storage.write.backoff.max.ms:600000}")
+	private long maxBackoffMillis;
+	@Value("${dls.storage.write.stale.ms:300000}")
+	private long staleMillis;
+	@Value("${dls.storage.write.shared.spool:false}")
+	private boolean sharedSpool;
+	@Value("${dls.storage.write.failed.retention.ms:604800000}")
+	private long failedRetentionMillis;
+	@Value("${dls.node.id:}")
+	private String node;
+
+	private ThreadPoolExecutor executor;
+	private final Map<String, Semaphore> backendPermits = new ConcurrentHashMap<>();
+	private final Set<Long> running = ConcurrentHashMap.newKeySet();
+
+	@PostConstruct
+	void start() throws UnknownHostException {
+
+		if(node.isBlank()) {
+			node = InetAddress.getLocalHost().getHostName();
+		}
+		if(enabled) {
+			log.info("Storage writes spooled to {}, {}", queuePath, sharedSpool ? "shared by all instances" : "claimed by node " + node);
+		}
+
+		AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(workers),
+				r -> {
+					Thread t = new Thread(r, "dls-storage-write-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	@PreDestroy
+	void stop() {
+		// jobs still running are left in RUNNING state and requeued once stale
+		executor.shutdown();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Reject new uploads while the backlog of pending writes is above its limit
+	 */
+	public void checkCapacity() {
+
+		if(enabled && storageJobRepo.countByStatus(StorageJobVO.PENDING) >= maxPending) {
+			throw new DataIntegrityViolationException("storage.queue.full");
+		}
+	}
+
+	/**
+	 * Spool the uploaded file under the queue path and schedule its write to storage
+	 */
+	public void enqueue(@NonNull MultipartFile multipart, String fsPath, Long fileId, String storage) throws IOException {
+
+		File dir = new File(queuePath, String.valueOf(fileId));
+		if(!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("Could not create queue directory " + dir.getAbsolutePath());
+		}
+		File file = new File(dir, Objects.requireNonNull(multipart.getOriginalFilename()));
+		multipart.transferTo(file);
+		enqueue(file, fsPath, fileId, storage);
+	}
+
+	/**
+	 * Schedule the write of a local file to storage. The local file is removed once it is stored.
+	 */
+	public void enqueue(@NonNull File localFile, String fsPath, Long fileId, String storage) {
+
+		Timestamp now = Timestamp.from(Instant.now());
+		storageJobRepo.save(StorageJobVO.builder()
+				.fileId(fileId)
+				.localPath(localFile.getAbsolutePath())
+				.fsPath(fsPath)
+				.storage(storage)
+				.node(sharedSpool ? null : node)
+				.status(StorageJobVO.PENDING)
+				.attempts(0)
+				.nextAttemptOn(now)
+				.createdOn(now)
+				.build());
+	}
+
+	@Scheduled(fixedDelayString = "${dls.storage.write.poll.ms:1000}", initialDelay = 10000)
+	public void poll() {
+
+		if(!enabled) return;
+
+		String storage = dfsService.getStorage();
+		Semaphore permits = backendPermits.computeIfAbsent(storage,
+				k -> new Semaphore(Math.min(workers, backendConcurrency.getOrDefault(k, workers))));
+		int free = permits.availablePermits();
+		if(free == 0) return;
+
+		List<StorageJobVO> jobs = storageJobRepo.claimDueJobs(storage, node, free);
+		for(StorageJobVO job : jobs) {
+			if(!permits.tryAcquire()) {
+				release(job);
+				continue;
+			}
+			running.add(job.getId());
+			try {
+				executor.execute(() -> {
+					try {
+						run(job);
+					} finally {
+						running.remove(job.getId());
+						permits.release();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				running.remove(job.getId());
+				permits.release();
+				release(job);
+			}
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${dls.storage.write.heartbeat.ms:60000}")
+	public void heartbeat() {
+
+		if(!enabled || running.isEmpty()) return;
+		storageJobRepo.heartbeat(List.copyOf(running));
+	}
+
+	@Scheduled(fixedDelayString = "${dls.storage.write.stale.ms:300000}")
+	public void requeueStale() {
+
+		if(!enabled) return;
+		int count = storageJobRepo.requeueStale(Timestamp.from(Instant.now().minusMillis(staleMillis)));
+		if(count > 0) {
+			log.warn("Requeued {} stale storage writes", count);
+		}
+	}
+
+	/**
+	 * Remove jobs that failed for good, and their spooled files, once kept long enough for manual recovery
+	 */
+	@Scheduled(fixedDelayString = "${dls.storage.write.failed.purge.ms:3600000}", initialDelay = 60000)
+	public void purgeFailed() {
+
+		if(!enabled) return;
+		storageJobRepo.findFailedBefore(node, Timestamp.from(Instant.now().minusMillis(failedRetentionMillis)), 500)
+				.forEach(job -> {
+					log.warn("Removing failed storage write of {}, spooled at {}", job.getFsPath(), job.getLocalPath());
+					storageJobRepo.deleteById(job.getId());
+					removeLocal(new File(job.getLocalPath()));
+				});
+	}
+
+	private void run(StorageJobVO job) {
+
+		File localFile = new File(job.getLocalPath());
+		try {
+			boolean deleted = fileRepo.findById(job.getFileId())
+					.map(o -> null != o.getDeleted() && o.getDeleted())
+					.orElse(true);
+			if(deleted) {
+				log.info("File {} deleted before it was stored, dropping write", job.getFsPath());
+			} else {
+				dfsService.store(localFile, job.getFsPath(), job.getFileId());
+			}
+			// the spooled file stays until the outcome is committed, a retry needs it
+			new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+				if(!deleted) {
+					fileRepo.findById(job.getFileId()).ifPresent(o -> {
+						o.setStorage(job.getStorage());
+						o.setUploaded(true);
+						fileRepo.saveAndFlush(o);
+					});
+				}
+				storageJobRepo.deleteById(job.getId());
+			});
+		} catch (Exception e) {
+			retry(job, e);
+			return;
+		}
+		removeLocal(localFile);
+	}
+
+	private void retry(StorageJobVO job, Exception e) {
+
+		job.setLastError(e.getMessage());
+		if(job.getAttempts() >= maxAttempts) {
+			log.error("Giving up storing {} after {} attempts, spooled file kept at {}. {}", job.getFsPath(),
+					job.getAttempts(), job.getLocalPath(), e.getMessage());
+			job.setStatus(StorageJobVO.FAILED);
+			// when it failed, for purgeFailed()
+			job.setNextAttemptOn(Timestamp.from(Instant.now()));
+			fileRepo.findById(job.getFileId()).ifPresent(o -> {
+				o.setUploaded(false);
+				fileRepo.saveAndFlush(o);
+			});
+		} else {
+			long delay = Math.min(maxBackoffMillis, backoffMillis << Math.min(job.getAttempts() - 1, 30));
+			log.warn("Storing {} failed, attempt {} retried in {} ms. {}", job.getFsPath(), job.getAttempts(), delay, e.getMessage());
+			job.setStatus(StorageJobVO.PENDING);
+			job.setNextAttemptOn(Timestamp.from(Instant.now().plusMillis(delay)));
+		}
+		storageJobRepo.saveAndFlush(job);
+	}
+
+	private void release(StorageJobVO job) {
+
+		job.setStatus(StorageJobVO.PENDING);
+		job.setAttempts(job.getAttempts() - 1);
+		storageJobRepo.saveAndFlush(job);
+	}
+
+	private void removeLocal(File localFile) {
+
+		if(localFile.exists() && !localFile.delete()) {
+			log.error("Could not delete {} from local queue", localFile.getAbsolutePath());
+		}
+		File dir = localFile.getParentFile();
+		if(null != dir && dir.getAbsolutePath().startsWith(new File(queuePath).getAbsolutePath())) {
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package dls.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import dls.repo.UserRepo;
+import dls.vo.UserVO;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DLS user names by user id and user ids by DLS user name, within a tenant.
+ * <p>
+ * Ids and names missing from the cache are resolved together with one <code>IN</code> query, so building a
+ * response that names many users costs at most one query. At most <code>dls.user.cache.size</code> entries
+ * of each are kept, none for longer than <code>dls.user.cache.ttl.ms</code>. Users that are not found are not
+ * remembered. A deleted user is dropped at once and again after commit, together with its entries of the
+ * <code>userId</code> and <code>userName</code> caches of {@link UserRepo}.
+ */
+@Slf4j
+@Component
+public class TenantUserCache {
+
+	@Autowired private UserRepo userRepo;
+	@Autowired private ObjectProvider<CacheManager> cacheManager;
+
+	@Value("${dls.user.cache.size:100000}")
+	private long maximumSize;
+	@Value("${dls.user.cache.ttl.ms:600000}")
+	private long ttlMillis;
+
+	private record IdKey(Long tenantId, Long id) {}
+
+	private record NameKey(Long tenantId, String dlsUser) {}
+
+	private Cache<IdKey, String> names;
+	private Cache<NameKey, Long> ids;
+
+	@PostConstruct
+	void init() {
+		names = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+		ids = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @return DLS user name by id, ids of no user of the tenant are left out
+	 */
+	public Map<Long, String> dlsUsers(Long tenantId, Collection<Long> userIds) {
+
+		Map<Long, String> found = Maps.newHashMap();
+		List<Long> missing = Lists.newArrayList();
+		userIds.stream().filter(Objects::nonNull).distinct().forEach(id -> {
+			String name = names.getIfPresent(new IdKey(tenantId, id));
+			if(null == name) missing.add(id);
+			else found.put(id, name);
+		});
+		if(!missing.isEmpty()) {
+			userRepo.findDlsUsersByIds(tenantId, missing).forEach(row -> {
+				Long id = ((Number) row.get("id")).longValue();
+				String name = (String) row.get("dls_user");
+				put(tenantId, id, name);
+				found.put(id, name);
+			});
+		}
+		return found;
+	}
+
+	/**
+	 * @return user id by DLS user name, names of no user of the tenant are left out
+	 */
+	public Map<String, Long> ids(Long tenantId, Collection<String> dlsUsers) {
+
+		Map<String, Long> found = Maps.newHashMap();
+		List<String> missing = Lists.newArrayList();
+		dlsUsers.stream().filter(Objects::nonNull).distinct().forEach(name -> {
+			Long id = ids.getIfPresent(new NameKey(tenantId, name));
+			if(null == id) missing.add(name);
+			else found.put(name, id);
+		});
+		if(!missing.isEmpty()) {
+			userRepo.findIdsByDlsUsers(tenantId, missing).forEach(row -> {
+				Long id = ((Number) row.get("id")).longValue();
+				String name = (String) row.get("dls_user");
+				put(tenantId, id, name);
+				found.put(name, id);
+			});
+		}
+		return found;
+	}
+
+	public Long id(Long tenantId, String dlsUser) {
+		return (null == dlsUser) ? null : ids(tenantId, List.of(dlsUser)).get(dlsUser);
+	}
+
+	/**
+	 * Remember users already read, e.g. loaded as entities
+	 */
+	public void put(Collection<UserVO> users) {
+		users.stream()
+				.filter(u -> null != u.getTenant())
+				.forEach(u -> put(u.getTenant().getId(), u.getId(), u.getDlsUser()));
+	}
+
+	/**
+	 * Drop a user, e.g. deleted
+	 */
+	public void invalidateUser(UserVO user) {
+
+		Long tenantId = user.getTenant().getId();
+		invalidate(() -> {
+			names.invalidate(new IdKey(tenantId, user.getId()));
+			ids.invalidate(new NameKey(tenantId, user.getDlsUser()));
+			evictRepoCaches(tenantId, List.of(user));
+		});
+	}
+
+	/**
+	 * Drop all users of a tenant, e.g. deleted. The {@link dls.repo.UserRepo} caches are keyed by user, so the
+	 * tenant's users are evicted from them one by one.
+	 */
+	public void invalidateTenant(Long tenantId, Collection<UserVO> users) {
+		invalidate(() -> {
+			names.asMap().keySet().removeIf(k -> Objects.equals(k.tenantId(), tenantId));
+			ids.asMap().keySet().removeIf(k -> Objects.equals(k.tenantId(), tenantId));
+			evictRepoCaches(tenantId, users);
+		});
+	}
+
+	private void evictRepoCaches(Long tenantId, Collection<UserVO> users) {
+
+		Optional.ofNullable(cacheManager.getIfAvailable()).ifPresent(manager -> {
+			Optional.ofNullable(manager.getCache("userId")).ifPresent(c -> users.forEach(u -> c.evict(u.getId())));
+			Optional.ofNullable(manager.getCache("userName"))
+					.ifPresent(c -> users.forEach(u -> c.evict(new SimpleKey(tenantId, u.getDlsUser()))));
+		});
+	}
+
+	public CacheStats nameStats() {
+		return names.stats();
+	}
+
+	public CacheStats idStats() {
+		return ids.stats();
+	}
+
+	@Scheduled(fixedDelayString = "${dls.user.cache.stats.ms:600000}", initialDelay = 600000)
+	public void logStats() {
+
+		log.info("User cache: names hit rate {} of {} lookups, ids hit rate {} of {} lookups",
+				String.format("%.2f", names.stats().hitRate()), names.stats().requestCount(),
+				String.format("%.2f", ids.stats().hitRate()), ids.stats().requestCount());
+	}
+
+	private void put(Long tenantId, Long id, String dlsUser) {
+
+		if(null == id || null == dlsUser) return;
+		names.put(new IdKey(tenantId, id), dlsUser);
+		ids.put(new NameKey(tenantId, dlsUser), id);
+	}
+
+	private static void invalidate(Runnable drop) {
+
+		drop.run();
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					drop.run();
+				}
+			});
+		}
+	}
+}
@@ -16,7 +16,6 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.ExampleMatcher;
@@ -45,32 +44,54 @@ public class UserService {
 	@Autowired private FileMetaRepo fileMetaRepo;
 	@Autowired private FileRepo fileRepo;
 	@Autowired private IFileManagementService dfsService;
+	@Autowired private ContentStore contentStore;
+	@Autowired private StorageQuotaService storageQuota;
+	@Autowired private AuthCache authCache;
+	@Autowired private TenantUserCache userCache;
+	@Autowired private CatalogResultCache catalogCache;
 //	@Autowired private DlsServiceHelper hService;
 	@Value("${default.dls.admin.name}")
 	private String dlsAdmin;
 	
 	public TenantVO authenticate(String apiKey) throws DlsSecurityException  {
 		
-		if(null == apiKey) throw new DlsSecurityException();
-		
-		return Optional.ofNullable(tenantRepo.findByApiKey(apiKey)).orElseThrow(DlsSecurityException::new);
-				
+		if(null == apiKey || authCache.isRejected(apiKey)) throw new DlsSecurityException();
+
+		TenantVO tenant = authCache.getTenant(apiKey);
+		if(null == tenant) {
+			tenant = tenantRepo.findByApiKey(apiKey);
+			if(null == tenant) {
+				authCache.reject(apiKey);
+				throw new DlsSecurityException();
+			}
+			authCache.putTenant(apiKey, tenant);
+		}
+		return tenant;
 	}
 
-	@Cacheable("authorizations")
 	public UserVO authorize(String apiKey, String dlsKey) throws DlsSecurityException, DlsPrivacyException {
 		
 		if(null == apiKey) throw new DlsSecurityException();
-		
+
+		UserVO user = (null == dlsKey) ? null : authCache.getUser(apiKey, dlsKey);
+		if(null != user) return user;
+
 		TenantVO tenant = authenticate(apiKey);
 		
 		if(null == dlsKey) throw new DlsPrivacyException();
+		if(authCache.isRejected(apiKey, dlsKey)) throw new DlsSecurityException();
 		
 		ExampleMatcher matcher = ExampleMatcher.matchingAll().withIgnoreNullValues().withIgnorePaths("id");
 		
 		UserVO vo = UserVO.builder().tenant(tenant).dlsKey(dlsKey).build();
-        
-		return userRepo.findOne(Example.of(vo, matcher)).orElseThrow(DlsSecurityException::new);
+
+		user = userRepo.findOne(Example.of(vo, matcher)).orElse(null);
+		if(null == user) {
+			authCache.reject(apiKey, dlsKey);
+			throw new DlsSecurityException();
+		}
+		authCache.putUser(apiKey, dlsKey, user);
+		return user;
 	}
 
 	public List<DlsResponse> register(TenantVO tenant, List<String> users) {
@@ -85,6 +106,7 @@ public class UserService {
 						.code(HttpStatus.CREATED.value()).value(u.getDlsUser()).key(u.getDlsKey()).build())
 				.collectList().block();
 		Optional.ofNullable(responses).ifPresent(errors::addAll);
+		authCache.invalidateRejected();
 		return errors ;
 	}
 	
@@ -118,6 +140,7 @@ public class UserService {
 
 
 		Optional.ofNullable(responses).ifPresent(errors::addAll);
+		authCache.invalidateRejected();
 //		if(null != responses) {
 //			responses.addAll(responses);
 //		}
@@ -225,6 +248,7 @@ public class UserService {
 		userVO.setAdmin(createAdmin);
 		userVO.setLastUpdatedBy(loggedInUser);
 		userRepo.save(userVO);
+		authCache.invalidateUser(userVO.getId());
 
 	}
 
@@ -240,6 +264,7 @@ public class UserService {
 		userVO.setLastUpdatedOn(Timestamp.from(Instant.now()));
 		userVO.setLastUpdatedBy(loggedInUser);
 		userRepo.save(userVO);
+		authCache.invalidateUser(userVO.getId());
 
 	}
 
@@ -290,6 +315,7 @@ public class UserService {
 				.ifPresent(o -> user.setOrgPosition(new String[]{o}));
 
 		userRepo.saveAndFlush(user);
+		authCache.invalidateRejected();
 		return "Tenant created : ".concat(t.getTcupUser()).concat(" with Admin DLS key ").concat(user.getDlsKey());
 	}
 	
@@ -335,8 +361,13 @@ public class UserService {
 		log.info("{} links deleted", linkRepo.deleteByUser(user));
 		log.info("{} shares deleted", shareRepo.deleteByUser(user));
 		log.info("{} metadata deleted", fileMetaRepo.deleteByUser(user));
+		List <FileVO> files = fileRepo.findByUser(user);
+		storageQuota.adjust(tenant.getId(), -contentStore.releaseFiles(files));
 		log.info("{} files deleted", fileRepo.deleteByUser(user));
 		userRepo.delete(user);
+		catalogCache.invalidate(tenant.getId());
+		authCache.invalidateTenant(tenant.getId());
+		userCache.invalidateTenant(tenant.getId(), users);
 		
 	}
 
@@ -355,11 +386,15 @@ public class UserService {
 		log.info("{} links deleted", linkRepo.deleteByUser(user));
 		log.info("{} shares deleted", shareRepo.deleteByUser(user));
 		files.forEach(f -> log.info("{} shares deleted", shareRepo.deleteByFile(f)));
+		storageQuota.adjust(authenticationUser.getTenant().getId(), -contentStore.releaseFiles(files));
 		
 		log.info("{} metadata deleted", fileMetaRepo.deleteByUser(user));
 		
 		log.info("{} files deleted", fileRepo.deleteByUser(user));
 		userRepo.delete(user);
+		catalogCache.invalidate(authenticationUser.getTenant().getId());
+		authCache.invalidateUser(user.getId());
+		userCache.invalidateUser(user);
 		
 	}
 
@@ -380,6 +415,7 @@ public class UserService {
 				.forEach(u -> u.setOrgPosition((organization == null) ? null : new String[]{organization}));
 
 		tenantRepo.save(tenantVO);
+		authCache.invalidateTenant(tenantVO.getId());
 
 	}
 	
@@ -476,6 +512,7 @@ public class UserService {
 
 		TenantVO tenant = Optional.ofNullable(tenantRepo.findByTcupUser(tcupUser)).orElseThrow(DlsNotFoundException::new);
 		tenant.setAllocatedStorage(storageLimit);
+		authCache.invalidateTenant(tenant.getId());
 
 		return "UPDATED";
     }
@@ -486,7 +523,7 @@ public class UserService {
 		Map <String,Long> storage = Maps.newHashMap();
 		Long allocatedStorage = Optional.ofNullable(tenant.getAllocatedStorage()).orElse(0L);
 		storage.put("allocated-storage", allocatedStorage);
-		Long usedStorage = Optional.ofNullable(fileRepo.getUsedStorage(tenant.getId())).orElse(0L);
+		Long usedStorage = storageQuota.getUsedStorage(tenant.getId());
 		storage.put("used-storage", usedStorage);
 		Long availableStorage = allocatedStorage - usedStorage;
 		storage.put("available-storage", (availableStorage < 0) ? 0 : availableStorage);
@@ -0,0 +1,57 @@
+package dls.service;
+
+import com.google.common.collect.Lists;
+import dls.repo.UserStatisticsRepo;
+import dls.vo.UserStatisticsVO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+/**
+ * Per user file statistics served by <code>/statistics</code>.
+ * <p>
+ * The counters in <code>user_statistics</code> are updated by triggers in the transaction that changes the
+ * files, so reading them costs a primary key lookup. Changes a trigger can not apply as a delta, e.g. a
+ * permission moving files between users or the removal of a user's first or last upload, mark the users stale
+ * and they are recomputed here, <code>dls.statistics.rebuild.batch</code> users at a time. Each batch is
+ * claimed with <code>FOR UPDATE SKIP LOCKED</code>, so DLS instances recomputing together share the stale users.
+ */
+@Slf4j
+@Service
+public class UserStatisticsService {
+
+	@Autowired private UserStatisticsRepo userStatisticsRepo;
+
+	@Value("${dls.statistics.rebuild.batch:100}")
+	private int batchSize;
+
+	public Optional<UserStatisticsVO> get(Long userId) {
+		return userStatisticsRepo.findById(userId);
+	}
+
+	@Scheduled(fixedDelayString = "${dls.statistics.rebuild.ms:60000}", initialDelay = 60000)
+	public void rebuildStale() {
+
+		int rebuilt = 0;
+		int batch;
+		do {
+			batch = userStatisticsRepo.rebuildStale(batchSize);
+			rebuilt += batch;
+		} while(batch == batchSize);
+		if(rebuilt > 0) {
+			log.info("Statistics of {} users recomputed", rebuilt);
+		}
+	}
+
+	/**
+	 * Recompute the statistics of all users, e.g. after the counters were found to drift
+	 */
+	public void rebuildAll() {
+
+		Lists.partition(userStatisticsRepo.findAllUserIds(), batchSize).forEach(userStatisticsRepo::rebuild);
+	}
+}
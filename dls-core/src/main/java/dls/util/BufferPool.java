@@ -0,0 +1,72 @@
+package dls.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fixed size pool of reusable byte buffers used to stream uploads to the storage backends.
+ * At most {@code bufferCount} buffers exist at any time, callers block when all are in use.
+ */
+public class BufferPool {
+
+	private final int bufferSize;
+	private final Semaphore permits;
+	private final Queue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+	public BufferPool(int bufferSize, int bufferCount) {
+
+		if(bufferSize <= 0 || bufferCount <= 0) {
+			throw new IllegalArgumentException("buffer size and count must be positive");
+		}
+		this.bufferSize = bufferSize;
+		this.permits = new Semaphore(bufferCount, true);
+	}
+
+	public byte[] acquire() throws InterruptedIOException {
+
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for a transfer buffer");
+		}
+		byte[] buffer = free.poll();
+		return (null == buffer) ? new byte[bufferSize] : buffer;
+	}
+
+	public void release(byte[] buffer) {
+
+		if(null == buffer) return;
+		free.offer(buffer);
+		permits.release();
+	}
+
+	/**
+	 * Copy the input to the output through one pooled buffer. Neither stream is closed.
+	 * @return number of bytes copied
+	 */
+	public long copy(InputStream in, OutputStream out) throws IOException {
+
+		byte[] buffer = acquire();
+		try {
+			long total = 0;
+			int read;
+			while((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				total += read;
+			}
+			return total;
+		} finally {
+			release(buffer);
+		}
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
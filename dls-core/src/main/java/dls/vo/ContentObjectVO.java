@@ -0,0 +1,43 @@
+package dls.vo;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.sql.Timestamp;
+
+/**
+ * Stored payload shared by all files of a tenant with the same SHA-256, see {@link dls.service.ContentStore}.
+ * A null digest marks content changed in place by an append, which is no longer shared.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity(name = "content_object")
+public class ContentObjectVO {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "hibernate_sequence")
+	@SequenceGenerator(name = "hibernate_sequence", sequenceName = "hibernate_sequence", allocationSize = 1)
+	private Long id;
+
+	@Column(name = "tenant_id", nullable = false)
+	private Long tenantId;
+
+	private String sha256;
+
+	@Column(name = "fs_path", nullable = false)
+	private String fsPath;
+
+	@Column(name = "size_in_byte")
+	private Long sizeInByte;
+
+	@Column(name = "ref_count", nullable = false)
+	private Integer refCount;
+
+	@Column(name = "created_on")
+	private Timestamp createdOn;
+}
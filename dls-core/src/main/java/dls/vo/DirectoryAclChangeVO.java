@@ -0,0 +1,38 @@
+package dls.vo;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.sql.Timestamp;
+
+/**
+ * Change of the permissions of a directory path, appended by triggers on <code>permission</code> and
+ * <code>directory</code>, see {@link dls.service.DirectoryAclIndex}
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity(name = "directory_acl_change")
+public class DirectoryAclChangeVO {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+
+	@Column(name = "tenant_id", nullable = false)
+	private Long tenantId;
+
+	@Column(nullable = false)
+	private String directory;
+
+	@Column(name = "changed_on", insertable = false, updatable = false)
+	private Timestamp changedOn;
+}
@@ -0,0 +1,27 @@
+package dls.vo;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Reference from a file to the {@link ContentObjectVO} holding its bytes
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity(name = "file_content")
+public class FileContentVO {
+
+	@Id
+	@Column(name = "file_id")
+	private Long fileId;
+
+	@Column(name = "content_id", nullable = false)
+	private Long contentId;
+}
@@ -0,0 +1,35 @@
+package dls.vo;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Stored full text search document and metadata of a file, maintained by database triggers on <code>file</code>
+ * and <code>file_meta</code>. Read only, used to match the text and metadata of a catalog search.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity(name = "file_search_document")
+public class FileSearchDocumentVO {
+
+	@Id
+	@Column(name = "file_id")
+	private Long fileId;
+
+	@Column(columnDefinition = "tsvector", insertable = false, updatable = false)
+	private String document;
+
+	// lower cased metadata name to the array of its values
+	@Column(columnDefinition = "jsonb", insertable = false, updatable = false)
+	private String metadata;
+
+	@Column(name = "meta_values", columnDefinition = "text[]", insertable = false, updatable = false)
+	private String[] metaValues;
+}
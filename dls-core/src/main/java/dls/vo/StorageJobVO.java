@@ -0,0 +1,64 @@
+package dls.vo;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.sql.Timestamp;
+
+/**
+ * Pending write of a locally spooled file to the storage backend, see {@link dls.service.StorageWriteQueue}
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity(name = "storage_job")
+public class StorageJobVO {
+
+	public static final String PENDING = "PENDING";
+	public static final String RUNNING = "RUNNING";
+	public static final String FAILED = "FAILED";
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "hibernate_sequence")
+	@SequenceGenerator(name = "hibernate_sequence", sequenceName = "hibernate_sequence", allocationSize = 1)
+	private Long id;
+
+	@Column(name = "file_id", nullable = false)
+	private Long fileId;
+
+	@Column(name = "local_path", nullable = false)
+	private String localPath;
+
+	@Column(name = "fs_path", nullable = false)
+	private String fsPath;
+
+	@Column(nullable = false)
+	private String storage;
+
+	/** DLS instance whose local spool holds the file, null if the spool is shared by all instances */
+	private String node;
+
+	@Column(nullable = false)
+	private String status;
+
+	private Integer attempts;
+
+	@Column(name = "last_error")
+	private String lastError;
+
+	@Column(name = "next_attempt_on")
+	private Timestamp nextAttemptOn;
+
+	@Column(name = "started_on")
+	private Timestamp startedOn;
+
+	@Column(name = "heartbeat_on")
+	private Timestamp heartbeatOn;
+
+	@Column(name = "created_on")
+	private Timestamp createdOn;
+}
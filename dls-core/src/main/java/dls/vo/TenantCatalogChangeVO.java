@@ -0,0 +1,35 @@
+package dls.vo;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.sql.Timestamp;
+
+/**
+ * Change of a tenant's catalog, appended by a trigger whenever its rows change, see
+ * {@link dls.service.CatalogResultCache}
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity(name = "tenant_catalog_change")
+public class TenantCatalogChangeVO {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+
+	@Column(name = "tenant_id", nullable = false)
+	private Long tenantId;
+
+	@Column(name = "changed_on", insertable = false, updatable = false)
+	private Timestamp changedOn;
+}
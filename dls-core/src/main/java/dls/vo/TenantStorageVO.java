@@ -0,0 +1,35 @@
+package dls.vo;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.sql.Timestamp;
+
+/**
+ * Storage used and reserved by a tenant, see {@link dls.service.StorageQuotaService}
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity(name = "tenant_storage")
+public class TenantStorageVO {
+
+	@Id
+	@Column(name = "tenant_id")
+	private Long tenantId;
+
+	@Column(name = "used_bytes", nullable = false)
+	private Long usedBytes;
+
+	@Column(name = "reserved_bytes", nullable = false)
+	private Long reservedBytes;
+
+	@Column(name = "reconciled_on")
+	private Timestamp reconciledOn;
+}
@@ -0,0 +1,59 @@
+package dls.vo;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.sql.Timestamp;
+
+/**
+ * Statistics of a user's files, kept up to date by triggers, see {@link dls.service.UserStatisticsService}
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity(name = "user_statistics")
+public class UserStatisticsVO {
+
+	@Id
+	@Column(name = "user_id")
+	private Long userId;
+
+	@Column(name = "total_volume", nullable = false)
+	private Long totalVolume;
+
+	@Column(name = "total_count", nullable = false)
+	private Long totalCount;
+
+	@Column(name = "first_uploaded")
+	private Timestamp firstUploaded;
+
+	@Column(name = "last_uploaded")
+	private Timestamp lastUploaded;
+
+	@Column(name = "total_deleted", nullable = false)
+	private Long totalDeleted;
+
+	@Column(name = "total_external", nullable = false)
+	private Long totalExternal;
+
+	@Column(name = "total_failed", nullable = false)
+	private Long totalFailed;
+
+	@Column(name = "total_shared", nullable = false)
+	private Long totalShared;
+
+	@Column(name = "total_bundled", nullable = false)
+	private Long totalBundled;
+
+	@Column(nullable = false)
+	private Boolean stale;
+
+	@Column(name = "rebuilt_on")
+	private Timestamp rebuiltOn;
+}
@@ -61,6 +61,9 @@ public class FAIRService {
 	@Autowired private FileRepo fileRepo;
 	@Autowired private FAIRServiceHelper helper;
 	@Autowired private PermissionRepo permissionRepo;
+	@Autowired private DirectoryAclIndex aclIndex;
+	@Autowired private CatalogResultCache catalogCache;
+	@Autowired private TenantUserCache userCache;
 	@Autowired private MetaDataSchemaRepo metaDataSchemaRepo;
 	@Autowired private DirectoryServiceHelper directoryServiceHelper;
 	@Autowired private AuditRepo auditRepo;
@@ -310,19 +313,24 @@ public class FAIRService {
 				.event(AuditEvent.PERMISSION_UPDATED.name())
 				.build();
 
+		// ids of all users named in the permissions, resolved at once
+		Map<String, Long> userIds = userCache.ids(user.getTenant().getId(), permissions.stream()
+				.flatMap(p -> p.getUsers().stream())
+				.collect(Collectors.toSet()));
+
 		//Delete existing permission of the user before updating the permission of the user
-		List<UserVO> uservoList;
 		PermissionVO permVO;
 		if(null != dir.getPermission() && !dir.getPermission().isEmpty()) { //Directory has some existing permission(s)
 			for(FAIRPermission permission : permissions) {
-				uservoList = userRepo.findUserListForUsers(permission.getUsers(), user.getTenant().getId());
-				if(null != uservoList) { // Some/All the usernames are valid
-					for(UserVO userVO : uservoList) {
-						//Check and get the user's permission on the directory
-						permVO = dir.getPermission().stream().filter(perm -> userVO.getId().equals(perm.getPermittedUser())).findAny().orElse(null);		
-						if(null != permVO) { //user has permission on the directory
-							permissionRepo.delete(permVO);
-						}			
+				for(String u : permission.getUsers()) {
+					Long userId = userIds.get(u);
+					if(null == userId) { // not a valid username
+						continue;
+					}
+					//Check and get the user's permission on the directory
+					permVO = dir.getPermission().stream().filter(perm -> userId.equals(perm.getPermittedUser())).findAny().orElse(null);
+					if(null != permVO) { //user has permission on the directory
+						permissionRepo.delete(permVO);
 					}
 				}
 			}
@@ -332,8 +340,7 @@ public class FAIRService {
 		Flux.fromIterable(permissions)
 				.flatMap(p -> {
 					return Flux.fromIterable(p.getUsers())
-							.map(u -> userRepo.findByTenantAndDlsUser(user.getTenant(), u))
-							.map(UserVO::getId)
+							.map(u -> Optional.ofNullable(userIds.get(u)).orElseThrow())
 							.map(id -> PermissionVO
 									.builder()
 									.directory(dir)
@@ -352,6 +359,8 @@ public class FAIRService {
 				.onErrorContinue((e,o) -> responses.add(DlsResponse.builder().code(HttpStatus.CONFLICT.value()).messages(Set.of("Action is already set in user's permission")).build()))
 				.subscribe(v -> responses.add(DlsResponse.builder().code(HttpStatus.RESET_CONTENT.value()).value(GlobalExceptionHandler.UPDATED).build()));
 		auditRepo.save(audit);
+		aclIndex.refresh(user.getTenant().getId());
+		catalogCache.invalidate(user.getTenant().getId());
 		return responses;
 
 	}
@@ -546,6 +555,8 @@ public class FAIRService {
 		}
 		permissionRepo.delete(permVO);
 		//permissionRepo.deleteAll(permList);
+		aclIndex.refresh(user.getTenant().getId());
+		catalogCache.invalidate(user.getTenant().getId());
 		AuditVO audit = AuditVO.builder()
 				.success(true)
 				.eventTime(Timestamp.from(Instant.now()))
@@ -683,7 +694,7 @@ public class FAIRService {
 		List<PermissionVO> permission = dir.getPermission();
 		List<FAIRPermission> permissions = 
 				Optional.ofNullable(permission)
-				        .map(list -> getFAIRPermission(list)
+				        .map(list -> getFAIRPermission(user.getTenant().getId(), list)
 				        		.collectList().block() ) 														   
 				        .orElseThrow(DlsNotFoundException::new);
 		if(permissions.isEmpty()) throw new DlsNotFoundException();
@@ -700,7 +711,9 @@ public class FAIRService {
 		return permissions;
 	}
 	
-	private Flux<FAIRPermission> getFAIRPermission(List<PermissionVO> p) {
+	private Flux<FAIRPermission> getFAIRPermission(Long tenantId, List<PermissionVO> p) {
+		Map<Long, String> dlsUsers = userCache.dlsUsers(tenantId,
+				p.stream().map(PermissionVO::getPermittedUser).collect(Collectors.toSet()));
 		return Flux.fromIterable(p)
 				.groupBy(PermissionVO::getAction)
 				.flatMap(f -> {
@@ -708,7 +721,7 @@ public class FAIRService {
 					return f.map(PermissionVO::getPermittedUser)
 							.buffer()
 							.map(userIds -> {
-								List<String> users = userRepo.findAllById(userIds).stream().map(UserVO::getDlsUser)
+								List<String> users = userIds.stream().map(dlsUsers::get).filter(u -> null != u)
 										.collect(Collectors.toList());
 								return FAIRPermission.builder().action(action).users(users).build();
 							});
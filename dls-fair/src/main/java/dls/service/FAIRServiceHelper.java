@@ -59,6 +59,7 @@ public class FAIRServiceHelper {
 	@Autowired private DlsServiceHelper dlsServiceHelper;
 	@Autowired private FAIRRepo fairRepo;
 	@Autowired private FileRepo fileRepo;
+	@Autowired private ContentStore contentStore;
 	@Autowired private FileMetaRepo fileMetaRepo;
 	@Autowired private PermissionRepo permissionRepo;
 	@Autowired private MetaDataSchemaRepo metaDataSchemaRepo;
@@ -134,9 +135,12 @@ public class FAIRServiceHelper {
 		list.add(FAIRPermission.builder().action("RWD")
 				.users(Lists.newArrayList(userVO.getDlsUser())).build());
 
-		List<PermissionVO> vos = Flux.fromIterable(list)
+		List<Permission> permissions = list.stream()
 				.map(fp -> Permission.builder().action(fp.getAction()).users(fp.getUsers()).build())
-				.flatMap(p -> directoryServiceHelper.buildPermissionPerUser(p, userVO)
+				.collect(Collectors.toList());
+		Map<String, UserVO> users = directoryServiceHelper.findPermittedUsers(permissions, userVO);
+		List<PermissionVO> vos = Flux.fromIterable(permissions)
+				.flatMap(p -> directoryServiceHelper.buildPermissionPerUser(p, userVO, users)
 				).collect(Collectors.toList()).block();
 
 		return DirectoryVO.builder()
@@ -690,7 +694,7 @@ public class FAIRServiceHelper {
 
 		String distId = file.getId().toString();
 		dist.getDistribution().put("dct:identifier", distId);
-		dist.getDistribution().put("dcat:accessURL", file.getFsPath());
+		dist.getDistribution().put("dcat:accessURL", contentStore.resolve(file));
 		dist.getDistribution().put("dcat:byteSize", file.getSizeInByte().toString());
 		dist.getDistribution().put("dct:hasVersion", file.getSavepoint());
 
@@ -1,6 +1,7 @@
 package dls;
 
 import dls.service.DfsSyncService;
+import dls.util.BufferPool;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.security.UserGroupInformation;
@@ -39,6 +40,13 @@ public class HDFSConfig {
     }
 
 
+    @Bean
+    public BufferPool getBufferPool(@Value("${dls.hdfs.stream.buffer.size:1048576}") int bufferSize,
+                                    @Value("${dls.hdfs.stream.buffer.count:32}") int bufferCount) {
+        return new BufferPool(bufferSize, bufferCount);
+    }
+
+
     @Bean
     @ConditionalOnProperty(value = "dls.enable.hdfs", matchIfMissing = true, havingValue = "true")
     public DfsSyncService schedule() {
@@ -21,6 +21,7 @@ import java.nio.file.Path;
 public class DfsSyncService {
 	
 	@Autowired private FileRepo fileRepo;		
+	@Autowired private ContentStore contentStore;
 	@Autowired private FileSystem hdfs;
 
 	@Value("${local.fs.failsafe.path}") 
@@ -47,7 +48,8 @@ public class DfsSyncService {
 					fsPath = StringUtils.trimLeadingCharacter(fsPath, '/');
 					fileRepo.findByFsPathAndDeleted(fsPath, false);
 //					Long id = Long.parseLong(fsPath.split("/")[1]);
-					fileRepo.findByFsPathAndStorage(fsPath, "H").ifPresent(vo -> {
+					String storedPath = fsPath;
+					contentStore.findStored(fsPath, "H").ifPresent(vo -> {
 						
 						boolean deleted = false;
 						
@@ -59,7 +61,7 @@ public class DfsSyncService {
 							
 							try {
 							
-								hdfs.moveFromLocalFile(new org.apache.hadoop.fs.Path(f.getAbsolutePath()), new org.apache.hadoop.fs.Path(vo.getFsPath()));
+								hdfs.moveFromLocalFile(new org.apache.hadoop.fs.Path(f.getAbsolutePath()), new org.apache.hadoop.fs.Path(storedPath));
 								deleted = f.getParentFile().delete();
 								
 								Mono.just(vo)
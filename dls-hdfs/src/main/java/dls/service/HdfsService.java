@@ -1,20 +1,21 @@
 package dls.service;
 
 import dls.repo.FileRepo;
+import dls.util.BufferPool;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.*;
-import org.apache.hadoop.io.IOUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import reactor.core.publisher.Mono;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Objects;
 
 
@@ -33,44 +34,36 @@ public class HdfsService
 	@Value("${dls.enable.hdfs}")
 	private Boolean enableHDFS;
 
+	@Value("${dls.hdfs.write.streaming:true}")
+	private Boolean streamingWrite;
+
+	@Autowired private BufferPool bufferPool;
+	@Autowired private StorageWriteQueue writeQueue;
+
 	@Autowired
 	private Configuration configuration;
 
 	@Override
 	public void write(@NonNull MultipartFile multipart, final String fsPath, final Long fileId) {
-		Mono.fromSupplier(() -> {		
-						
+		if(enableHDFS && writeQueue.isEnabled()) {
 			try {
-//				String [] splits = fsPath.split("/",3);
-//				String userRoot = Joiner.on('/').skipNulls().join(splits[0], splits[1]);
-				String userRoot = fsPath.substring(0,fsPath.lastIndexOf('/'));
-				String baseDir = failsafeFilePath.concat("/" + userRoot + "/" /*+ fileId*/);
-				File file = new File(baseDir.concat("/").concat(Objects.requireNonNull(multipart.getOriginalFilename())));
-				File fileDir = new File(baseDir);
-				
-				if (!file.exists()) {					
-					if(!fileDir.mkdirs()) {
-						log.error("Error in creating local directory");						
-					} 
-			    }		
-				
-				multipart.transferTo(file);
-
-				if(enableHDFS) {
-					hdfs.moveFromLocalFile(new org.apache.hadoop.fs.Path(file.getAbsolutePath()), new org.apache.hadoop.fs.Path(fsPath));
+				writeQueue.enqueue(multipart, fsPath, fileId, getStorage());
+				return;
+			} catch (IOException e) {
+				log.error("Could not queue {} for HDFS, writing in place. {}", fsPath, e.getMessage());
+			}
+		}
+		Mono.fromSupplier(() -> {
 
-					log.info("Copied to hadoop {}/{}", hdfs.getWorkingDirectory(), fsPath);
-					if (!fileDir.delete()) {
-						log.error("Error in deleting local directory");
-					}
+			if(enableHDFS && streamingWrite) {
+				try (InputStream in = multipart.getInputStream()) {
+					return streamToHdfs(in, fsPath);
+				} catch (IOException e) {
+					log.warn("HDFS not reachable for {}, spooling to DLS local. {}", fsPath, e.getMessage());
+					return spoolToLocal(multipart, fsPath, false);
 				}
-				return true;
-				
-			} catch (IOException e) {
-				log.error("Fatal exception in storing uploaded file {} in DLS local. {}",fsPath, e.getMessage());
-				return false;
 			}
-			
+			return spoolToLocal(multipart, fsPath, enableHDFS);
 		})
 		.subscribe(status -> fileRepo.findById(fileId).ifPresent(o -> {
 			if(!enableHDFS) {
@@ -85,8 +78,72 @@ public class HdfsService
 		
 	}
 
+	/**
+	 * Pipe the uploaded bytes straight into HDFS through a pooled buffer, without touching local disk.
+	 * A partially written target is removed before the error is rethrown.
+	 */
+	private boolean streamToHdfs(InputStream in, String fsPath) throws IOException {
+
+		org.apache.hadoop.fs.Path target = new org.apache.hadoop.fs.Path(fsPath);
+		try (FSDataOutputStream out = hdfs.create(target, true)) {
+			bufferPool.copy(in, out);
+		} catch (IOException e) {
+			try {
+				hdfs.delete(target, false);
+			} catch (IOException ex) {
+				log.error("Could not remove partial file {}. {}", fsPath, ex.getMessage());
+			}
+			throw e;
+		}
+		log.info("Streamed to hadoop {}/{}", hdfs.getWorkingDirectory(), fsPath);
+		return true;
+	}
+
+	/**
+	 * Store the uploaded file under the failsafe path. When <code>moveToHdfs</code> is set the file is moved
+	 * to HDFS right away, otherwise it is left for {@link DfsSyncService} to pick up.
+	 */
+	private boolean spoolToLocal(MultipartFile multipart, String fsPath, boolean moveToHdfs) {
+
+		try {
+//			String [] splits = fsPath.split("/",3);
+//			String userRoot = Joiner.on('/').skipNulls().join(splits[0], splits[1]);
+			String userRoot = fsPath.substring(0,fsPath.lastIndexOf('/'));
+			String baseDir = failsafeFilePath.concat("/" + userRoot + "/" /*+ fileId*/);
+			File file = new File(baseDir.concat("/").concat(Objects.requireNonNull(multipart.getOriginalFilename())));
+			File fileDir = new File(baseDir);
+
+			if (!file.exists()) {
+				if(!fileDir.mkdirs()) {
+					log.error("Error in creating local directory");
+				}
+			}
+
+			multipart.transferTo(file);
+
+			if(moveToHdfs) {
+				hdfs.moveFromLocalFile(new org.apache.hadoop.fs.Path(file.getAbsolutePath()), new org.apache.hadoop.fs.Path(fsPath));
+
+				log.info("Copied to hadoop {}/{}", hdfs.getWorkingDirectory(), fsPath);
+				if (!fileDir.delete()) {
+					log.error("Error in deleting local directory");
+				}
+				return true;
+			}
+			return !enableHDFS;
+
+		} catch (IOException e) {
+			log.error("Fatal exception in storing uploaded file {} in DLS local. {}",fsPath, e.getMessage());
+			return false;
+		}
+	}
+
 	@Override
 	public void writeBundle(@NonNull File bundleFile, String fsPath, final Long fileId) {
+		if(writeQueue.isEnabled()) {
+			writeQueue.enqueue(bundleFile, fsPath, fileId, getStorage());
+			return;
+		}
 		Mono.fromSupplier(() -> {		
 						
 			try {
@@ -107,18 +164,46 @@ public class HdfsService
 		}));
 		
 	}
-	
+
+	@Override
+	public void store(@NonNull File localFile, String fsPath, final Long fileId) throws IOException {
+
+		try (InputStream in = new FileInputStream(localFile)) {
+			streamToHdfs(in, fsPath);
+		}
+	}
+
+	@Override
+	public String getStorage() {
+		return enableHDFS ? "H" : "L";
+	}
 
 
 
 	@Override
 	public void append(@NonNull String fsPath, @NonNull MultipartFile multipartFile) throws IOException {
 		org.apache.hadoop.fs.Path existingFile = new org.apache.hadoop.fs.Path(fsPath);
-		org.apache.hadoop.fs.Path newFile = new org.apache.hadoop.fs.Path(fsPath.concat(".part"));
 
-		try (FSDataOutputStream out = hdfs.create(newFile, true)) {
-			ByteArrayInputStream in = new ByteArrayInputStream(multipartFile.getBytes());
-			IOUtils.copyBytes(in, out, configuration, true);
+		if(configuration.getBoolean("dfs.support.append", false)) {
+			FSDataOutputStream appended = null;
+			try {
+				appended = hdfs.append(existingFile);
+			} catch (UnsupportedOperationException | IOException e) {
+				// nothing is written yet, so the file can still be extended by concat
+				log.warn("Native append failed for {}, falling back to concat. {}", fsPath, e.getMessage());
+			}
+			if(null != appended) {
+				try (InputStream in = multipartFile.getInputStream(); FSDataOutputStream out = appended) {
+					bufferPool.copy(in, out);
+				}
+				return;
+			}
+		}
+
+		org.apache.hadoop.fs.Path newFile = new org.apache.hadoop.fs.Path(fsPath.concat(".part"));
+		try (InputStream in = multipartFile.getInputStream();
+			 FSDataOutputStream out = hdfs.create(newFile, true)) {
+			bufferPool.copy(in, out);
 		}
 		hdfs.concat(existingFile, new org.apache.hadoop.fs.Path[]{newFile});
 		hdfs.delete(newFile, false);
@@ -146,6 +231,16 @@ public class HdfsService
 				new org.apache.hadoop.fs.Path(fsPath.concat("_" + createdOn)));
 	}
 
+	@Override
+	public void move(@NonNull String srcPath, @NonNull String destPath) throws IOException {
+
+		org.apache.hadoop.fs.Path dest = new org.apache.hadoop.fs.Path(destPath);
+		hdfs.mkdirs(dest.getParent());
+		if(!hdfs.rename(new org.apache.hadoop.fs.Path(srcPath), dest)) {
+			throw new IOException("Could not move " + srcPath + " to " + destPath);
+		}
+	}
+
 	@Override
 	public void renameDirectory(@NonNull String srcDir, @NonNull String destDir) throws IOException {
 
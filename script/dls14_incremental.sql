@@ -0,0 +1,1080 @@
+-- Pending writes of spooled uploads to the storage backend, see StorageWriteQueue
+CREATE TABLE IF NOT EXISTS public.storage_job (
+    id bigint NOT NULL PRIMARY KEY,
+    file_id bigint NOT NULL,
+    local_path character varying NOT NULL,
+    fs_path character varying NOT NULL,
+    storage character varying(1) NOT NULL,
+    status character varying(16) NOT NULL,
+    attempts integer DEFAULT 0 NOT NULL,
+    last_error text,
+    next_attempt_on timestamp without time zone DEFAULT now() NOT NULL,
+    started_on timestamp without time zone,
+    created_on timestamp without time zone DEFAULT now() NOT NULL
+);
+ALTER TABLE public.storage_job OWNER TO dlsusr;
+CREATE INDEX IF NOT EXISTS idx_storage_job_due ON public.storage_job USING btree (storage, next_attempt_on) WHERE status = 'PENDING';
+CREATE INDEX IF NOT EXISTS idx_storage_job_running ON public.storage_job USING btree (started_on) WHERE status = 'RUNNING';
+
+-- Content addressed storage shared by files of a tenant with the same SHA-256, see ContentStore
+CREATE TABLE IF NOT EXISTS public.content_object (
+    id bigint NOT NULL PRIMARY KEY,
+    tenant_id bigint NOT NULL REFERENCES public.tenant(id) ON DELETE CASCADE,
+    sha256 character(64),
+    fs_path character varying NOT NULL,
+    size_in_byte bigint,
+    ref_count integer DEFAULT 1 NOT NULL,
+    created_on timestamp without time zone DEFAULT now() NOT NULL
+);
+ALTER TABLE public.content_object OWNER TO dlsusr;
+CREATE UNIQUE INDEX IF NOT EXISTS uk_content_object_sha256 ON public.content_object USING btree (tenant_id, sha256);
+
+CREATE TABLE IF NOT EXISTS public.file_content (
+    file_id bigint NOT NULL PRIMARY KEY REFERENCES public.file(id) ON DELETE CASCADE,
+    content_id bigint NOT NULL REFERENCES public.content_object(id)
+);
+ALTER TABLE public.file_content OWNER TO dlsusr;
+CREATE INDEX IF NOT EXISTS idx_file_content_content ON public.file_content USING btree (content_id);
+
+-- Per tenant storage counters for quota checks, see StorageQuotaService
+CREATE TABLE IF NOT EXISTS public.tenant_storage (
+    tenant_id bigint NOT NULL PRIMARY KEY REFERENCES public.tenant(id) ON DELETE CASCADE,
+    used_bytes bigint DEFAULT 0 NOT NULL,
+    reserved_bytes bigint DEFAULT 0 NOT NULL,
+    reconciled_on timestamp without time zone
+);
+ALTER TABLE public.tenant_storage OWNER TO dlsusr;
+
+CREATE TABLE IF NOT EXISTS public.storage_reservation (
+    id bigint NOT NULL PRIMARY KEY,
+    tenant_id bigint NOT NULL REFERENCES public.tenant_storage(tenant_id) ON DELETE CASCADE,
+    size_in_byte bigint NOT NULL,
+    created_on timestamp without time zone DEFAULT now() NOT NULL
+);
+ALTER TABLE public.storage_reservation OWNER TO dlsusr;
+CREATE INDEX IF NOT EXISTS idx_storage_reservation_created ON public.storage_reservation USING btree (created_on);
+CREATE INDEX IF NOT EXISTS idx_storage_reservation_tenant ON public.storage_reservation USING btree (tenant_id);
+
+INSERT INTO public.tenant_storage (tenant_id, used_bytes, reserved_bytes, reconciled_on)
+SELECT t.id, coalesce(sum(f.size_in_byte), 0), 0, now()
+FROM public.tenant t LEFT JOIN public.users u ON u.tenant_id = t.id LEFT JOIN public.file f ON f.user_id = u.id AND f.deleted = false
+GROUP BY t.id
+ON CONFLICT (tenant_id) DO NOTHING;
+
+-- Full text search document of each file, kept up to date by triggers so /catalog?text= does not build it per query
+CREATE TABLE IF NOT EXISTS public.file_search_document (
+    file_id bigint NOT NULL PRIMARY KEY REFERENCES public.file(id) ON DELETE CASCADE,
+    document tsvector NOT NULL
+);
+ALTER TABLE public.file_search_document OWNER TO dlsusr;
+CREATE INDEX IF NOT EXISTS idx_file_search_document ON public.file_search_document USING gin (document);
+
+-- same document as catalog_text_search computed, for the given files
+CREATE OR REPLACE FUNCTION func_file_search_document_refresh(ids bigint[]) RETURNS void LANGUAGE SQL AS $$
+    INSERT INTO file_search_document (file_id, document)
+    SELECT file.id,
+        setweight(to_tsvector(file.file_name), 'A')
+            || to_tsvector(COALESCE(string_agg(file_meta.name, ' '), ''))
+            || to_tsvector(COALESCE(string_agg(file_meta.value, ' '), ''))
+            || to_tsvector(replace(replace(file.fs_path, '/', ' '), '.', ' .'))
+    FROM file LEFT JOIN file_meta ON file.id = file_meta.file_id
+    WHERE file.id = ANY(ids)
+    GROUP BY file.id, file.file_name, file.fs_path
+    ON CONFLICT (file_id) DO UPDATE SET document = EXCLUDED.document;
+$$;
+
+-- statement level, so a batch of files or metadata is indexed once per file
+
+CREATE OR REPLACE FUNCTION func_file_search_document_file() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        PERFORM func_file_search_document_refresh(ARRAY(SELECT id FROM new_rows));
+    ELSE
+        PERFORM func_file_search_document_refresh(ARRAY(SELECT n.id FROM new_rows n JOIN old_rows o ON o.id = n.id
+            WHERE n.file_name IS DISTINCT FROM o.file_name OR n.fs_path IS DISTINCT FROM o.fs_path));
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION func_file_search_document_file_meta() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        PERFORM func_file_search_document_refresh(ARRAY(SELECT DISTINCT file_id FROM new_rows));
+    ELSIF TG_OP = 'DELETE' THEN
+        PERFORM func_file_search_document_refresh(ARRAY(SELECT DISTINCT file_id FROM old_rows));
+    ELSE
+        PERFORM func_file_search_document_refresh(ARRAY(SELECT file_id FROM new_rows UNION SELECT file_id FROM old_rows));
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trigger_file_search_document_file_insert ON file;
+CREATE TRIGGER trigger_file_search_document_file_insert AFTER INSERT ON file
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_file_search_document_file();
+
+DROP TRIGGER IF EXISTS trigger_file_search_document_file_update ON file;
+CREATE TRIGGER trigger_file_search_document_file_update AFTER UPDATE ON file
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_file_search_document_file();
+
+DROP TRIGGER IF EXISTS trigger_file_search_document_file_meta_insert ON file_meta;
+CREATE TRIGGER trigger_file_search_document_file_meta_insert AFTER INSERT ON file_meta
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_file_search_document_file_meta();
+
+DROP TRIGGER IF EXISTS trigger_file_search_document_file_meta_update ON file_meta;
+CREATE TRIGGER trigger_file_search_document_file_meta_update AFTER UPDATE ON file_meta
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_file_search_document_file_meta();
+
+DROP TRIGGER IF EXISTS trigger_file_search_document_file_meta_delete ON file_meta;
+CREATE TRIGGER trigger_file_search_document_file_meta_delete AFTER DELETE ON file_meta
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_file_search_document_file_meta();
+
+SELECT func_file_search_document_refresh(ARRAY(SELECT id FROM file));
+
+-- inlined by the planner into document @@ plainto_tsquery(text), so the GIN index is used
+CREATE OR REPLACE FUNCTION fts_match(document tsvector, text text) RETURNS boolean LANGUAGE SQL STABLE AS $$
+    SELECT document @@ plainto_tsquery(text);
+$$;
+
+-- the view reads the stored document instead of aggregating file_meta for every file
+CREATE OR REPLACE VIEW public.catalog_text_search AS
+ SELECT file.id,
+    file.bundle,
+    file.bundled,
+    file.created_on,
+    file.deleted,
+    file.deleted_on,
+    file.external,
+    file.file_name,
+    file.fs_path,
+    file.lock,
+    file.qualifier,
+    file.savepoint,
+    file.storage,
+    file.shared_to,
+    file.size_in_byte,
+    file.uploaded,
+    file.upload_status,
+    COALESCE(permission.permitted_user, file.user_id) AS user_id,
+    permission.acquired_user,
+    permission.action,
+    file.directory_id,
+    ( SELECT file_search_document.document FROM public.file_search_document
+          WHERE file_search_document.file_id = file.id) AS document
+   FROM (public.file
+     LEFT JOIN public.permission ON (((file.directory_id = permission.directory_id) AND ((permission.action)::text ~~ '%R%'::text))))
+  GROUP BY file.id, file.bundled, file.created_on, file.deleted, file.deleted_on, file.external, file.file_name, file.fs_path, file.lock, file.qualifier, file.savepoint, file.shared_to, file.storage, file.size_in_byte, file.uploaded, file.upload_status, file.directory_id, file.user_id, permission.permitted_user, permission.acquired_user, permission.action;
+
+-- sort keys of catalog searches with id as tie breaker, so keyset pages are read from an index, see KeysetPager
+CREATE INDEX IF NOT EXISTS idx_catalog_created_on_id ON public.catalog USING btree (created_on, id);
+CREATE INDEX IF NOT EXISTS idx_catalog_name_id ON public.catalog USING btree (name, id);
+CREATE INDEX IF NOT EXISTS idx_catalog_size_id ON public.catalog USING btree (size, id);
+CREATE INDEX IF NOT EXISTS idx_catalog_created_by_id ON public.catalog USING btree (created_by, id);
+CREATE INDEX IF NOT EXISTS idx_file_created_on_id ON public.file USING btree (created_on, id);
+CREATE INDEX IF NOT EXISTS idx_file_file_name_id ON public.file USING btree (file_name, id);
+CREATE INDEX IF NOT EXISTS idx_file_size_in_byte_id ON public.file USING btree (size_in_byte, id);
+
+-- metadata of each file for indexed metadata queries, see MetadataQueryCompiler:
+-- lower cased name to the array of its values, and all values
+ALTER TABLE public.file_search_document ADD COLUMN IF NOT EXISTS metadata jsonb;
+ALTER TABLE public.file_search_document ADD COLUMN IF NOT EXISTS meta_values text[];
+CREATE INDEX IF NOT EXISTS idx_file_search_document_metadata ON public.file_search_document USING gin (metadata);
+CREATE INDEX IF NOT EXISTS idx_file_search_document_meta_values ON public.file_search_document USING gin (meta_values);
+CREATE INDEX IF NOT EXISTS idx_file_meta_name_numeric ON public.file_meta USING btree (upper(name), value_numeric);
+CREATE INDEX IF NOT EXISTS idx_file_meta_name_value ON public.file_meta USING btree (upper(name), value);
+
+CREATE OR REPLACE FUNCTION func_file_search_document_refresh(ids bigint[]) RETURNS void LANGUAGE SQL AS $$
+    INSERT INTO file_search_document (file_id, document, metadata, meta_values)
+    SELECT file.id,
+        setweight(to_tsvector(file.file_name), 'A')
+            || to_tsvector(COALESCE(string_agg(file_meta.name, ' '), ''))
+            || to_tsvector(COALESCE(string_agg(file_meta.value, ' '), ''))
+            || to_tsvector(replace(replace(file.fs_path, '/', ' '), '.', ' .')),
+        ( SELECT jsonb_object_agg(m.name, m.vals) FROM (
+            SELECT lower(fm.name) AS name, jsonb_agg(fm.value) AS vals FROM file_meta fm
+                WHERE fm.file_id = file.id AND fm.name IS NOT NULL GROUP BY lower(fm.name)) m ),
+        ( SELECT array_agg(DISTINCT fm.value) FROM file_meta fm WHERE fm.file_id = file.id AND fm.value IS NOT NULL )
+    FROM file LEFT JOIN file_meta ON file.id = file_meta.file_id
+    WHERE file.id = ANY(ids)
+    GROUP BY file.id, file.file_name, file.fs_path
+    ON CONFLICT (file_id) DO UPDATE SET document = EXCLUDED.document, metadata = EXCLUDED.metadata,
+        meta_values = EXCLUDED.meta_values;
+$$;
+
+SELECT func_file_search_document_refresh(ARRAY(SELECT id FROM file));
+
+-- inlined by the planner into the jsonb and array operators, so the GIN indexes are used
+CREATE OR REPLACE FUNCTION meta_has_key(metadata jsonb, name text) RETURNS boolean LANGUAGE SQL IMMUTABLE AS $$
+    SELECT metadata ? name;
+$$;
+
+CREATE OR REPLACE FUNCTION meta_contains(metadata jsonb, name text, value text) RETURNS boolean LANGUAGE SQL STABLE AS $$
+    SELECT metadata @> jsonb_build_object(name, jsonb_build_array(value));
+$$;
+
+CREATE OR REPLACE FUNCTION meta_has_value(meta_values text[], value text) RETURNS boolean LANGUAGE SQL IMMUTABLE AS $$
+    SELECT meta_values @> ARRAY[value];
+$$;
+
+-- Statistics of each user behind /statistics, kept up to date by triggers, see UserStatisticsService.
+-- A file counts for the users allowed to read its directory, for its owner if there are none.
+-- Users whose first or last upload can not be derived from a change, or who gain or lose files through
+-- permissions, are marked stale and recomputed by UserStatisticsService.
+CREATE TABLE IF NOT EXISTS public.user_statistics (
+    user_id bigint NOT NULL PRIMARY KEY,
+    total_volume bigint DEFAULT 0 NOT NULL,
+    total_count bigint DEFAULT 0 NOT NULL,
+    first_uploaded timestamp without time zone,
+    last_uploaded timestamp without time zone,
+    total_deleted bigint DEFAULT 0 NOT NULL,
+    total_external bigint DEFAULT 0 NOT NULL,
+    total_failed bigint DEFAULT 0 NOT NULL,
+    total_shared bigint DEFAULT 0 NOT NULL,
+    total_bundled bigint DEFAULT 0 NOT NULL,
+    stale boolean DEFAULT false NOT NULL,
+    rebuilt_on timestamp without time zone
+);
+ALTER TABLE public.user_statistics OWNER TO dlsusr;
+CREATE INDEX IF NOT EXISTS idx_user_statistics_stale ON public.user_statistics USING btree (user_id) WHERE stale;
+
+-- add the given file rows to the statistics of their users, or take them out when the sign is -1
+CREATE OR REPLACE FUNCTION func_user_statistics_apply(signs integer[], ids bigint[], owners bigint[], dirs bigint[],
+        sizes bigint[], created timestamp without time zone[], deletes boolean[], externals boolean[],
+        uploads boolean[], bundles boolean[], as_internal boolean) RETURNS void LANGUAGE PLPGSQL AS $$
+
+DECLARE d RECORD;
+
+BEGIN
+    FOR d IN
+        WITH f AS (
+            SELECT f.*, COALESCE(as_internal, EXISTS (SELECT 1 FROM file_meta fm
+                WHERE fm.file_id = f.id AND fm.name = 'dls:internal')) AS internal
+            FROM unnest(signs, ids, owners, dirs, sizes, created, deletes, externals, uploads, bundles)
+                AS f(sign, id, owner_id, directory_id, size_in_byte, created_on, deleted, external, uploaded, bundled)
+        ), attributed AS (
+            SELECT COALESCE(p.permitted_user, f.owner_id) AS user_id, f.*
+            FROM f LEFT JOIN LATERAL (SELECT DISTINCT permission.permitted_user FROM permission
+                WHERE permission.directory_id = f.directory_id AND permission.action LIKE '%R%') p ON true
+        ), delta AS (
+            SELECT a.user_id,
+                COALESCE(sum(a.sign * a.size_in_byte) FILTER (WHERE NOT a.internal), 0) AS volume,
+                COALESCE(sum(a.sign) FILTER (WHERE NOT a.internal), 0) AS cnt,
+                COALESCE(sum(a.sign) FILTER (WHERE NOT a.internal AND a.deleted), 0) AS deleted,
+                COALESCE(sum(a.sign) FILTER (WHERE a.external), 0) AS external,
+                COALESCE(sum(a.sign) FILTER (WHERE a.uploaded = false), 0) AS failed,
+                0 AS bundled,
+                min(a.created_on) FILTER (WHERE NOT a.internal AND a.sign > 0) AS added_first,
+                max(a.created_on) FILTER (WHERE NOT a.internal AND a.sign > 0) AS added_last,
+                min(a.created_on) FILTER (WHERE NOT a.internal AND a.sign < 0) AS removed_first,
+                max(a.created_on) FILTER (WHERE NOT a.internal AND a.sign < 0) AS removed_last,
+                bool_or(a.sign < 0) AS removed
+            FROM attributed a GROUP BY a.user_id
+            UNION ALL
+            SELECT f.owner_id, 0, 0, 0, 0, 0, COALESCE(sum(f.sign) FILTER (WHERE f.bundled), 0),
+                NULL, NULL, NULL, NULL, bool_or(f.sign < 0)
+            FROM f GROUP BY f.owner_id
+        )
+        SELECT delta.user_id, sum(volume) AS volume, sum(cnt) AS cnt, sum(deleted) AS deleted,
+            sum(external) AS external, sum(failed) AS failed, sum(bundled) AS bundled,
+            min(added_first) AS added_first, max(added_last) AS added_last,
+            min(removed_first) AS removed_first, max(removed_last) AS removed_last, bool_or(removed) AS removed
+        FROM delta WHERE delta.user_id IS NOT NULL GROUP BY delta.user_id
+        -- rows are locked in the same order by every transaction, so concurrent uploads do not deadlock
+        ORDER BY delta.user_id
+    LOOP
+        -- a user without statistics losing files is recomputed
+        INSERT INTO user_statistics AS s (user_id, total_volume, total_count, first_uploaded, last_uploaded,
+            total_deleted, total_external, total_failed, total_bundled, stale)
+        VALUES (d.user_id, d.volume, d.cnt, d.added_first, d.added_last, d.deleted, d.external, d.failed,
+            d.bundled, d.removed)
+        ON CONFLICT (user_id) DO UPDATE SET
+            total_volume = s.total_volume + d.volume,
+            total_count = s.total_count + d.cnt,
+            total_deleted = s.total_deleted + d.deleted,
+            total_external = s.total_external + d.external,
+            total_failed = s.total_failed + d.failed,
+            total_bundled = s.total_bundled + d.bundled,
+            first_uploaded = LEAST(s.first_uploaded, d.added_first),
+            last_uploaded = GREATEST(s.last_uploaded, d.added_last),
+            stale = s.stale
+                OR COALESCE(d.removed_first <= s.first_uploaded
+                    AND (d.added_first IS NULL OR d.added_first > d.removed_first), false)
+                OR COALESCE(d.removed_last >= s.last_uploaded
+                    AND (d.added_last IS NULL OR d.added_last < d.removed_last), false);
+    END LOOP;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION func_user_statistics_mark_stale(user_ids bigint[]) RETURNS void LANGUAGE SQL AS $$
+    INSERT INTO user_statistics (user_id, stale)
+    SELECT DISTINCT u, true FROM unnest(user_ids) u WHERE u IS NOT NULL ORDER BY u
+    ON CONFLICT (user_id) DO UPDATE SET stale = true;
+$$;
+
+CREATE OR REPLACE FUNCTION func_user_statistics_file() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+
+DECLARE r RECORD;
+
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        SELECT array_agg(1) AS signs, array_agg(id) AS ids, array_agg(user_id) AS owners, array_agg(directory_id) AS dirs,
+            array_agg(size_in_byte) AS sizes, array_agg(created_on) AS created, array_agg(deleted) AS deletes,
+            array_agg(external) AS externals, array_agg(uploaded) AS uploads, array_agg(bundled) AS bundles
+            INTO r FROM new_rows;
+    ELSIF TG_OP = 'DELETE' THEN
+        SELECT array_agg(-1) AS signs, array_agg(id) AS ids, array_agg(user_id) AS owners, array_agg(directory_id) AS dirs,
+            array_agg(size_in_byte) AS sizes, array_agg(created_on) AS created, array_agg(deleted) AS deletes,
+            array_agg(external) AS externals, array_agg(uploaded) AS uploads, array_agg(bundled) AS bundles
+            INTO r FROM old_rows;
+    ELSE
+        -- only rows that change the statistics, taken out as they were and added as they are
+        SELECT array_agg(c.sign) AS signs, array_agg(c.id) AS ids, array_agg(c.user_id) AS owners,
+            array_agg(c.directory_id) AS dirs, array_agg(c.size_in_byte) AS sizes, array_agg(c.created_on) AS created,
+            array_agg(c.deleted) AS deletes, array_agg(c.external) AS externals, array_agg(c.uploaded) AS uploads,
+            array_agg(c.bundled) AS bundles
+            INTO r FROM (
+                SELECT -1 AS sign, o.* FROM old_rows o JOIN new_rows n ON n.id = o.id
+                    WHERE (o.user_id, o.directory_id, o.size_in_byte, o.created_on, o.deleted, o.external, o.uploaded, o.bundled)
+                        IS DISTINCT FROM (n.user_id, n.directory_id, n.size_in_byte, n.created_on, n.deleted, n.external, n.uploaded, n.bundled)
+                UNION ALL
+                SELECT 1 AS sign, n.* FROM new_rows n JOIN old_rows o ON o.id = n.id
+                    WHERE (o.user_id, o.directory_id, o.size_in_byte, o.created_on, o.deleted, o.external, o.uploaded, o.bundled)
+                        IS DISTINCT FROM (n.user_id, n.directory_id, n.size_in_byte, n.created_on, n.deleted, n.external, n.uploaded, n.bundled)
+            ) c;
+    END IF;
+
+    IF r.ids IS NOT NULL THEN
+        PERFORM func_user_statistics_apply(r.signs, r.ids, r.owners, r.dirs, r.sizes, r.created, r.deletes,
+            r.externals, r.uploads, r.bundles, NULL);
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+-- files that became internal or stopped being internal move out of or into the statistics
+CREATE OR REPLACE FUNCTION func_user_statistics_internal(files bigint[], now_internal boolean) RETURNS void LANGUAGE PLPGSQL AS $$
+
+DECLARE r RECORD;
+
+BEGIN
+    SELECT array_agg(-1) AS minus, array_agg(1) AS plus, array_agg(id) AS ids, array_agg(user_id) AS owners,
+        array_agg(directory_id) AS dirs, array_agg(size_in_byte) AS sizes, array_agg(created_on) AS created,
+        array_agg(deleted) AS deletes, array_agg(external) AS externals, array_agg(uploaded) AS uploads,
+        array_agg(bundled) AS bundles
+        INTO r FROM file WHERE id = ANY(files);
+
+    IF r.ids IS NOT NULL THEN
+        PERFORM func_user_statistics_apply(r.minus, r.ids, r.owners, r.dirs, r.sizes, r.created, r.deletes,
+            r.externals, r.uploads, r.bundles, NOT now_internal);
+        PERFORM func_user_statistics_apply(r.plus, r.ids, r.owners, r.dirs, r.sizes, r.created, r.deletes,
+            r.externals, r.uploads, r.bundles, now_internal);
+    END IF;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION func_user_statistics_file_meta() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        -- files with no dls:internal metadata before this statement
+        PERFORM func_user_statistics_internal(ARRAY(SELECT n.file_id FROM new_rows n WHERE n.name = 'dls:internal'
+            GROUP BY n.file_id
+            HAVING count(*) = (SELECT count(*) FROM file_meta fm WHERE fm.file_id = n.file_id AND fm.name = 'dls:internal')),
+            true);
+    ELSIF TG_OP = 'DELETE' THEN
+        PERFORM func_user_statistics_internal(ARRAY(SELECT DISTINCT o.file_id FROM old_rows o WHERE o.name = 'dls:internal'
+            AND NOT EXISTS (SELECT 1 FROM file_meta fm WHERE fm.file_id = o.file_id AND fm.name = 'dls:internal')),
+            false);
+    ELSE
+        -- renames to or from dls:internal are rare, the users of the files are recomputed
+        PERFORM func_user_statistics_mark_stale(ARRAY(
+            SELECT COALESCE(p.permitted_user, f.user_id) FROM file f
+                LEFT JOIN permission p ON p.directory_id = f.directory_id AND p.action LIKE '%R%'
+                WHERE f.id IN (SELECT unnest(ARRAY[n.file_id, o.file_id]) FROM new_rows n JOIN old_rows o ON o.id = n.id
+                    WHERE (n.name, n.file_id) IS DISTINCT FROM (o.name, o.file_id)
+                        AND 'dls:internal' IN (n.name, o.name))));
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION func_user_statistics_file_share() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO user_statistics AS s (user_id, total_shared)
+            SELECT user_id, count(*) FROM new_rows WHERE user_id IS NOT NULL GROUP BY user_id ORDER BY user_id
+            ON CONFLICT (user_id) DO UPDATE SET total_shared = s.total_shared + EXCLUDED.total_shared;
+    END IF;
+    IF TG_OP IN ('DELETE', 'UPDATE') THEN
+        INSERT INTO user_statistics AS s (user_id, total_shared, stale)
+            SELECT user_id, -count(*), true FROM old_rows WHERE user_id IS NOT NULL GROUP BY user_id ORDER BY user_id
+            ON CONFLICT (user_id) DO UPDATE SET total_shared = s.total_shared + EXCLUDED.total_shared;
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+-- a change of who may read a directory moves its files between users, its readers and owners are recomputed
+CREATE OR REPLACE FUNCTION func_user_statistics_permission() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        PERFORM func_user_statistics_mark_stale(ARRAY(
+            SELECT permitted_user FROM new_rows
+            UNION SELECT p.permitted_user FROM permission p WHERE p.directory_id IN (SELECT directory_id FROM new_rows)
+            UNION SELECT DISTINCT f.user_id FROM file f WHERE f.directory_id IN (SELECT directory_id FROM new_rows)));
+    END IF;
+    IF TG_OP IN ('DELETE', 'UPDATE') THEN
+        PERFORM func_user_statistics_mark_stale(ARRAY(
+            SELECT permitted_user FROM old_rows
+            UNION SELECT p.permitted_user FROM permission p WHERE p.directory_id IN (SELECT directory_id FROM old_rows)
+            UNION SELECT DISTINCT f.user_id FROM file f WHERE f.directory_id IN (SELECT directory_id FROM old_rows)));
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+-- recompute the statistics of users from their files, as the statistics view did. The rows are locked first,
+-- deltas of files changed meanwhile wait for them and are added to the recomputed counters afterwards.
+CREATE OR REPLACE FUNCTION func_user_statistics_rebuild(user_ids bigint[]) RETURNS integer LANGUAGE SQL AS $$
+    SELECT count(*) FROM (SELECT 1 FROM user_statistics WHERE user_id = ANY(user_ids) ORDER BY user_id FOR UPDATE) l;
+    DELETE FROM user_statistics s WHERE s.user_id = ANY(user_ids) AND NOT EXISTS (SELECT 1 FROM users u WHERE u.id = s.user_id);
+    INSERT INTO user_statistics (user_id, total_volume, total_count, first_uploaded, last_uploaded, total_deleted,
+        total_external, total_failed, total_shared, total_bundled, stale, rebuilt_on)
+    SELECT u.id,
+        COALESCE(sum(a.size_in_byte) FILTER (WHERE NOT a.internal), 0),
+        count(a.id) FILTER (WHERE NOT a.internal),
+        min(a.created_on) FILTER (WHERE NOT a.internal),
+        max(a.created_on) FILTER (WHERE NOT a.internal),
+        count(a.id) FILTER (WHERE NOT a.internal AND a.deleted),
+        count(a.id) FILTER (WHERE a.external),
+        count(a.id) FILTER (WHERE a.uploaded = false),
+        (SELECT count(*) FROM file_share fs WHERE fs.user_id = u.id),
+        (SELECT count(*) FROM file fb WHERE fb.bundled AND fb.user_id = u.id),
+        false, now()
+    FROM users u LEFT JOIN (
+        SELECT COALESCE(p.permitted_user, f.user_id) AS user_id, f.id, f.size_in_byte, f.created_on, f.deleted,
+            f.external, f.uploaded,
+            EXISTS (SELECT 1 FROM file_meta fm WHERE fm.file_id = f.id AND fm.name = 'dls:internal') AS internal
+        FROM file f LEFT JOIN LATERAL (SELECT DISTINCT permission.permitted_user FROM permission
+            WHERE permission.directory_id = f.directory_id AND permission.action LIKE '%R%') p ON true
+        WHERE f.user_id = ANY(user_ids) OR f.directory_id IN (SELECT directory_id FROM permission
+            WHERE permitted_user = ANY(user_ids) AND action LIKE '%R%')
+    ) a ON a.user_id = u.id
+    WHERE u.id = ANY(user_ids)
+    GROUP BY u.id
+    ORDER BY u.id
+    ON CONFLICT (user_id) DO UPDATE SET
+        total_volume = EXCLUDED.total_volume,
+        total_count = EXCLUDED.total_count,
+        first_uploaded = EXCLUDED.first_uploaded,
+        last_uploaded = EXCLUDED.last_uploaded,
+        total_deleted = EXCLUDED.total_deleted,
+        total_external = EXCLUDED.total_external,
+        total_failed = EXCLUDED.total_failed,
+        total_shared = EXCLUDED.total_shared,
+        total_bundled = EXCLUDED.total_bundled,
+        stale = false,
+        rebuilt_on = EXCLUDED.rebuilt_on;
+    SELECT count(*)::integer FROM user_statistics WHERE user_id = ANY(user_ids);
+$$;
+
+-- recompute up to batch stale users, users claimed by another DLS instance are skipped
+CREATE OR REPLACE FUNCTION func_user_statistics_rebuild_stale(batch integer) RETURNS integer LANGUAGE SQL AS $$
+    SELECT func_user_statistics_rebuild(ARRAY(
+        SELECT user_id FROM user_statistics WHERE stale ORDER BY user_id LIMIT batch FOR UPDATE SKIP LOCKED));
+$$;
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_file_insert ON file;
+CREATE TRIGGER trigger_user_statistics_file_insert AFTER INSERT ON file
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_file();
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_file_update ON file;
+CREATE TRIGGER trigger_user_statistics_file_update AFTER UPDATE ON file
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_file();
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_file_delete ON file;
+CREATE TRIGGER trigger_user_statistics_file_delete AFTER DELETE ON file
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_file();
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_file_meta_insert ON file_meta;
+CREATE TRIGGER trigger_user_statistics_file_meta_insert AFTER INSERT ON file_meta
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_file_meta();
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_file_meta_update ON file_meta;
+CREATE TRIGGER trigger_user_statistics_file_meta_update AFTER UPDATE ON file_meta
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_file_meta();
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_file_meta_delete ON file_meta;
+CREATE TRIGGER trigger_user_statistics_file_meta_delete AFTER DELETE ON file_meta
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_file_meta();
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_file_share_insert ON file_share;
+CREATE TRIGGER trigger_user_statistics_file_share_insert AFTER INSERT ON file_share
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_file_share();
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_file_share_update ON file_share;
+CREATE TRIGGER trigger_user_statistics_file_share_update AFTER UPDATE ON file_share
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_file_share();
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_file_share_delete ON file_share;
+CREATE TRIGGER trigger_user_statistics_file_share_delete AFTER DELETE ON file_share
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_file_share();
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_permission_insert ON permission;
+CREATE TRIGGER trigger_user_statistics_permission_insert AFTER INSERT ON permission
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_permission();
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_permission_update ON permission;
+CREATE TRIGGER trigger_user_statistics_permission_update AFTER UPDATE ON permission
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_permission();
+
+DROP TRIGGER IF EXISTS trigger_user_statistics_permission_delete ON permission;
+CREATE TRIGGER trigger_user_statistics_permission_delete AFTER DELETE ON permission
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_user_statistics_permission();
+
+SELECT func_user_statistics_rebuild(ARRAY(SELECT id FROM users));
+
+-- /statistics reads the maintained rows, same columns as before
+CREATE OR REPLACE VIEW public.statistics AS
+ SELECT user_statistics.user_id,
+    user_statistics.total_volume::numeric AS totalvolume,
+    user_statistics.total_count AS totalcount,
+    user_statistics.last_uploaded AS lastuploaded,
+    user_statistics.first_uploaded AS firstuploaded,
+    user_statistics.total_deleted AS totaldeleted,
+    user_statistics.total_external AS totalexternal,
+    user_statistics.total_failed AS totalfailed,
+    user_statistics.total_shared AS totalshared,
+    user_statistics.total_bundled AS totalbundled
+   FROM public.user_statistics
+  WHERE user_statistics.total_count > 0;
+
+-- catalog visibility: queries are scoped to the tenant of the user and test permitted_users with @>,
+-- so a user's rows are found through the index instead of scanning the catalog of all tenants
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+CREATE INDEX IF NOT EXISTS idx_catalog_tenant_permitted_users ON public.catalog USING gin (tenant_id, permitted_users);
+CREATE INDEX IF NOT EXISTS idx_catalog_tenant_type_parent ON public.catalog USING btree (tenant_id, type, parent);
+CREATE INDEX IF NOT EXISTS idx_catalog_path_type ON public.catalog USING btree (path, type);
+
+CREATE OR REPLACE FUNCTION catalog_permitted(permitted_users bigint[], user_id bigint) RETURNS boolean
+    LANGUAGE SQL IMMUTABLE AS $$ SELECT permitted_users @> ARRAY[user_id] $$;
+
+-- files a user can see in catalog_text_search: in a directory the user may read, or owned by the user
+CREATE INDEX IF NOT EXISTS idx_permission_permitted_user ON public.permission USING btree (permitted_user, directory_id);
+CREATE INDEX IF NOT EXISTS idx_permission_directory ON public.permission USING btree (directory_id);
+CREATE INDEX IF NOT EXISTS idx_file_directory ON public.file USING btree (directory_id);
+CREATE INDEX IF NOT EXISTS idx_file_user ON public.file USING btree (user_id);
+
+-- catalog rows of files carry the tenant of their owner, the tenant scoped catalog queries depend on it
+CREATE OR REPLACE FUNCTION func_catalog_file_insert() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+
+DECLARE dlsUser TEXT;
+DECLARE dir TEXT;
+DECLARE permittedUser BIGINT[];
+DECLARE tenantId BIGINT;
+
+BEGIN
+    IF ( NEW.deleted IS NULL OR NEW.deleted = false ) AND NEW.fs_path LIKE '%' || NEW.file_name THEN
+        SELECT dls_user, tenant_id INTO dlsUser, tenantId FROM users WHERE id = NEW.user_id;
+        IF NEW.directory_id IS NOT NULL THEN
+            SELECT directory INTO dir FROM directory WHERE id = NEW.directory_id;
+            SELECT ARRAY_AGG(permitted_user) INTO permittedUser FROM permission
+                WHERE directory_id = NEW.directory_id GROUP BY directory_id;
+        ELSE
+            permittedUser[1] = NEW.user_id;
+        END IF;
+
+        INSERT INTO catalog(id, type, name, path, parent, size, created_on,
+            created_by, savepoint, uploaded, upload_status, lock, bundled,
+            qualifier, shared_to, permitted_users, tenant_id)
+        VALUES(NEW.id, 'F', NEW.file_name, NEW.fs_path, dir,
+            NEW.size_in_byte, NEW.created_on, dlsUser, NEW.savepoint, NEW.uploaded,
+            NEW.upload_status, NEW.lock, NEW.bundled, NEW.qualifier, NEW.shared_to, permittedUser, tenantId);
+
+        UPDATE catalog SET file_count = file_count + 1 WHERE id = (SELECT ID FROM catalog WHERE path = dir);
+    END IF;
+RETURN NEW;
+END;
+$$;
+
+UPDATE catalog SET tenant_id = users.tenant_id FROM file JOIN users ON users.id = file.user_id
+    WHERE catalog.id = file.id AND catalog.type = 'F' AND catalog.tenant_id IS NULL;
+
+-- trigram indexes for wildcard and regex searches of the explorer, see ExplorerViewSpecification
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX IF NOT EXISTS idx_catalog_name_trgm ON public.catalog USING gin (name gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_catalog_path_trgm ON public.catalog USING gin (path gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_catalog_parent_trgm ON public.catalog USING gin (parent gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_catalog_savepoint_trgm ON public.catalog USING gin (lower(savepoint) gin_trgm_ops);
+
+-- inlined into name ~ pattern, unlike regexp_match(name, pattern) IS NOT NULL it can use the trigram index
+CREATE OR REPLACE FUNCTION catalog_regex_match(name text, pattern text) RETURNS boolean
+    LANGUAGE SQL IMMUTABLE AS $$ SELECT name ~ pattern $$;
+
+-- changes of each tenant's catalog, one row per statement changing its rows, see CatalogResultCache. Rows
+-- are only appended, so writers of a tenant do not wait for each other as they would updating a version row.
+-- xact_id orders them by transaction, a reader has seen every change of a transaction below the xmin of the
+-- snapshot it read them with.
+CREATE TABLE IF NOT EXISTS public.tenant_catalog_change (
+    id bigserial NOT NULL PRIMARY KEY,
+    tenant_id bigint NOT NULL,
+    xact_id xid8 DEFAULT pg_current_xact_id() NOT NULL,
+    changed_on timestamp without time zone DEFAULT clock_timestamp() NOT NULL
+);
+ALTER TABLE public.tenant_catalog_change OWNER TO dlsusr;
+CREATE INDEX IF NOT EXISTS idx_tenant_catalog_change_xact ON public.tenant_catalog_change USING btree (xact_id);
+
+CREATE OR REPLACE FUNCTION func_tenant_catalog_version() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO tenant_catalog_change (tenant_id)
+            SELECT DISTINCT tenant_id FROM new_rows WHERE tenant_id IS NOT NULL;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO tenant_catalog_change (tenant_id)
+            SELECT DISTINCT tenant_id FROM old_rows WHERE tenant_id IS NOT NULL;
+    ELSE
+        INSERT INTO tenant_catalog_change (tenant_id)
+            SELECT tenant_id FROM new_rows WHERE tenant_id IS NOT NULL
+            UNION SELECT tenant_id FROM old_rows WHERE tenant_id IS NOT NULL;
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trigger_tenant_catalog_version_insert ON catalog;
+CREATE TRIGGER trigger_tenant_catalog_version_insert AFTER INSERT ON catalog
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_tenant_catalog_version();
+
+DROP TRIGGER IF EXISTS trigger_tenant_catalog_version_update ON catalog;
+CREATE TRIGGER trigger_tenant_catalog_version_update AFTER UPDATE ON catalog
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_tenant_catalog_version();
+
+DROP TRIGGER IF EXISTS trigger_tenant_catalog_version_delete ON catalog;
+CREATE TRIGGER trigger_tenant_catalog_version_delete AFTER DELETE ON catalog
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_tenant_catalog_version();
+
+-- autocomplete of metadata keys and of the values of each key, per tenant with occurrence counts.
+-- Private metadata, stored as <user id>@<key>, is listed under its key for that user only, other
+-- metadata has private_user 0 and is listed for the whole tenant. See MetaCompletionService.
+CREATE TABLE IF NOT EXISTS public.meta_key_completion (
+    tenant_id bigint NOT NULL,
+    private_user bigint NOT NULL,
+    name text NOT NULL,
+    occurrences bigint NOT NULL,
+    PRIMARY KEY (tenant_id, private_user, name)
+);
+ALTER TABLE public.meta_key_completion OWNER TO dlsusr;
+CREATE INDEX IF NOT EXISTS idx_meta_key_completion_prefix ON public.meta_key_completion
+    USING btree (tenant_id, private_user, lower(name) text_pattern_ops);
+
+CREATE TABLE IF NOT EXISTS public.meta_value_completion (
+    tenant_id bigint NOT NULL,
+    private_user bigint NOT NULL,
+    name text NOT NULL,
+    value text NOT NULL,
+    occurrences bigint NOT NULL,
+    PRIMARY KEY (tenant_id, private_user, name, value)
+);
+ALTER TABLE public.meta_value_completion OWNER TO dlsusr;
+CREATE INDEX IF NOT EXISTS idx_meta_value_completion_prefix ON public.meta_value_completion
+    USING btree (tenant_id, private_user, lower(name), lower(value) text_pattern_ops);
+-- completions whose last occurrence is gone, removed after each fold
+CREATE INDEX IF NOT EXISTS idx_meta_key_completion_gone ON public.meta_key_completion USING btree (tenant_id) WHERE occurrences = 0;
+CREATE INDEX IF NOT EXISTS idx_meta_value_completion_gone ON public.meta_value_completion USING btree (tenant_id) WHERE occurrences = 0;
+
+-- private metadata is named <user id>@<key>, it is completed under its key for its owner only
+CREATE OR REPLACE FUNCTION meta_completion_owner(name text) RETURNS bigint LANGUAGE SQL IMMUTABLE AS $$
+    SELECT CASE WHEN name ~ '^[0-9]{1,18}@' THEN split_part(name, '@', 1)::bigint ELSE 0 END
+$$;
+
+CREATE OR REPLACE FUNCTION meta_completion_key(name text) RETURNS text LANGUAGE SQL IMMUTABLE AS $$
+    SELECT CASE WHEN name ~ '^[0-9]{1,18}@' THEN substr(name, strpos(name, '@') + 1) ELSE name END
+$$;
+
+-- metadata rows added (sign 1) and removed (sign -1) since the completions were last folded, see
+-- MetaCompletionService. Triggers only append to it, so writers of the same keys do not wait for each other.
+CREATE TABLE IF NOT EXISTS public.meta_completion_delta (
+    id bigserial NOT NULL PRIMARY KEY,
+    tenant_id bigint NOT NULL,
+    name text NOT NULL,
+    value text,
+    sign integer NOT NULL
+);
+ALTER TABLE public.meta_completion_delta OWNER TO dlsusr;
+
+-- internal dls: metadata, e.g. the lineage of every upload, is not completed
+CREATE OR REPLACE FUNCTION func_meta_completion() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    IF TG_OP IN ('DELETE', 'UPDATE') THEN
+        INSERT INTO meta_completion_delta (tenant_id, name, value, sign)
+            SELECT users.tenant_id, m.name, m.value, -1 FROM old_rows m JOIN users ON users.id = m.user_id
+            WHERE m.name IS NOT NULL AND m.name NOT LIKE 'dls:%';
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO meta_completion_delta (tenant_id, name, value, sign)
+            SELECT users.tenant_id, m.name, m.value, 1 FROM new_rows m JOIN users ON users.id = m.user_id
+            WHERE m.name IS NOT NULL AND m.name NOT LIKE 'dls:%';
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+DROP FUNCTION IF EXISTS func_meta_completion_apply(integer[], bigint[], text[], text[]);
+
+-- add up to batch deltas to the completions, deltas taken by another DLS instance are skipped. Completions
+-- are updated in key order, so instances folding together do not deadlock.
+CREATE OR REPLACE FUNCTION func_meta_completion_fold(batch integer) RETURNS integer LANGUAGE PLPGSQL AS $$
+
+DECLARE folded integer;
+
+BEGIN
+    WITH d AS (
+        DELETE FROM meta_completion_delta WHERE id IN (
+            SELECT id FROM meta_completion_delta ORDER BY id LIMIT batch FOR UPDATE SKIP LOCKED)
+        RETURNING tenant_id, meta_completion_owner(name) AS private_user, meta_completion_key(name) AS name,
+            value, sign
+    ), k AS (
+        INSERT INTO meta_key_completion AS c (tenant_id, private_user, name, occurrences)
+            SELECT tenant_id, private_user, name, sum(sign) FROM d GROUP BY tenant_id, private_user, name
+            ORDER BY tenant_id, private_user, name
+            ON CONFLICT (tenant_id, private_user, name) DO UPDATE SET occurrences = c.occurrences + EXCLUDED.occurrences
+    ), v AS (
+        INSERT INTO meta_value_completion AS c (tenant_id, private_user, name, value, occurrences)
+            SELECT tenant_id, private_user, name, value, sum(sign) FROM d WHERE value IS NOT NULL
+                GROUP BY tenant_id, private_user, name, value ORDER BY tenant_id, private_user, name, value
+            ON CONFLICT (tenant_id, private_user, name, value) DO UPDATE SET occurrences = c.occurrences + EXCLUDED.occurrences
+    )
+    SELECT count(*) INTO folded FROM d;
+    -- a removal folded before the addition it cancels leaves a negative count until the addition is folded
+    DELETE FROM meta_key_completion WHERE occurrences = 0;
+    DELETE FROM meta_value_completion WHERE occurrences = 0;
+RETURN folded;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trigger_meta_completion_insert ON file_meta;
+CREATE TRIGGER trigger_meta_completion_insert AFTER INSERT ON file_meta
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_meta_completion();
+
+DROP TRIGGER IF EXISTS trigger_meta_completion_update ON file_meta;
+CREATE TRIGGER trigger_meta_completion_update AFTER UPDATE ON file_meta
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_meta_completion();
+
+DROP TRIGGER IF EXISTS trigger_meta_completion_delete ON file_meta;
+CREATE TRIGGER trigger_meta_completion_delete AFTER DELETE ON file_meta
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_meta_completion();
+
+TRUNCATE meta_key_completion, meta_value_completion, meta_completion_delta;
+INSERT INTO meta_key_completion (tenant_id, private_user, name, occurrences)
+    SELECT users.tenant_id, meta_completion_owner(fm.name), meta_completion_key(fm.name), count(*)
+    FROM file_meta fm JOIN users ON users.id = fm.user_id
+    WHERE fm.name IS NOT NULL AND fm.name NOT LIKE 'dls:%'
+    GROUP BY 1, 2, 3;
+INSERT INTO meta_value_completion (tenant_id, private_user, name, value, occurrences)
+    SELECT users.tenant_id, meta_completion_owner(fm.name), meta_completion_key(fm.name), fm.value, count(*)
+    FROM file_meta fm JOIN users ON users.id = fm.user_id
+    WHERE fm.name IS NOT NULL AND fm.name NOT LIKE 'dls:%' AND fm.value IS NOT NULL
+    GROUP BY 1, 2, 3, 4;
+
+-- Metadata of files in the catalog and their search documents are refreshed once per file and transaction,
+-- at commit, instead of being rebuilt from all metadata of the file for every row written. Changed files are
+-- queued per transaction and a deferred trigger refreshes all queued files of the transaction in one pass.
+-- Within the writing transaction catalog.metadata* and file_search_document show the state before it.
+CREATE TABLE IF NOT EXISTS public.catalog_meta_refresh (
+    txid bigint NOT NULL,
+    file_id bigint NOT NULL,
+    PRIMARY KEY (txid, file_id)
+);
+ALTER TABLE public.catalog_meta_refresh OWNER TO dlsusr;
+
+-- same values func_catalog_file_meta_insert and func_catalog_file_meta_delete computed, for the given files
+CREATE OR REPLACE FUNCTION func_catalog_meta_refresh(files bigint[]) RETURNS void LANGUAGE SQL AS $$
+    UPDATE catalog SET metadata_ids = m.ids, metadata_json = m.json, metadata = m.meta
+    FROM (
+        SELECT f.id,
+            ( SELECT ARRAY_AGG(fm.id ORDER BY fm.id) FROM file_meta fm
+                WHERE fm.file_id = f.id AND fm.name NOT LIKE 'dls:%' ) AS ids,
+            ( SELECT JSONB_AGG(json_strip_nulls(json_build_object(
+                    'name', ltrim(substring(fm.name, position('@' in fm.name)), '@'),
+                    'value', fm.value,
+                    'createdBy', fm.user_id,
+                    'privateTo', CASE WHEN fm.name ~ '\d+@.+' THEN fm.user_id ELSE NULL END)) ORDER BY fm.id)
+                FROM file_meta fm WHERE fm.file_id = f.id AND fm.name NOT LIKE 'dls:%' ) AS json,
+            ( SELECT json_object(ARRAY_AGG(ltrim(substring(fm.name, position('@' in fm.name)), '@') ORDER BY fm.id),
+                    ARRAY_AGG(fm.value ORDER BY fm.id))::jsonb
+                FROM file_meta fm WHERE fm.file_id = f.id AND fm.name NOT LIKE 'dls:%' ) AS meta
+        FROM unnest(files) AS f(id)
+    ) m
+    WHERE catalog.id = m.id
+        AND (catalog.metadata_ids, catalog.metadata_json, catalog.metadata) IS DISTINCT FROM (m.ids, m.json, m.meta);
+$$;
+
+CREATE OR REPLACE FUNCTION func_catalog_file_meta_queue() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO catalog_meta_refresh (txid, file_id)
+            SELECT DISTINCT txid_current(), file_id FROM new_rows WHERE file_id IS NOT NULL
+            ON CONFLICT DO NOTHING;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO catalog_meta_refresh (txid, file_id)
+            SELECT DISTINCT txid_current(), file_id FROM old_rows WHERE file_id IS NOT NULL
+            ON CONFLICT DO NOTHING;
+    ELSE
+        INSERT INTO catalog_meta_refresh (txid, file_id)
+            SELECT txid_current(), file_id FROM new_rows WHERE file_id IS NOT NULL
+            UNION SELECT txid_current(), file_id FROM old_rows WHERE file_id IS NOT NULL
+            ON CONFLICT DO NOTHING;
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+-- fires at commit for each queued file, the first one refreshes all files of the transaction
+CREATE OR REPLACE FUNCTION func_catalog_meta_refresh_queued() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+
+DECLARE files bigint[];
+
+BEGIN
+    WITH q AS (DELETE FROM catalog_meta_refresh WHERE txid = txid_current() RETURNING file_id)
+        SELECT array_agg(file_id) INTO files FROM q;
+    IF files IS NOT NULL THEN
+        PERFORM func_catalog_meta_refresh(files);
+        PERFORM func_file_search_document_refresh(files);
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trigger_catalog_file_meta_insert ON file_meta;
+DROP TRIGGER IF EXISTS trigger_catalog_file_meta_delete ON file_meta;
+DROP TRIGGER IF EXISTS trigger_file_search_document_file_meta_insert ON file_meta;
+DROP TRIGGER IF EXISTS trigger_file_search_document_file_meta_update ON file_meta;
+DROP TRIGGER IF EXISTS trigger_file_search_document_file_meta_delete ON file_meta;
+
+DROP TRIGGER IF EXISTS trigger_catalog_file_meta_queue_insert ON file_meta;
+CREATE TRIGGER trigger_catalog_file_meta_queue_insert AFTER INSERT ON file_meta
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_catalog_file_meta_queue();
+
+DROP TRIGGER IF EXISTS trigger_catalog_file_meta_queue_update ON file_meta;
+CREATE TRIGGER trigger_catalog_file_meta_queue_update AFTER UPDATE ON file_meta
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_catalog_file_meta_queue();
+
+DROP TRIGGER IF EXISTS trigger_catalog_file_meta_queue_delete ON file_meta;
+CREATE TRIGGER trigger_catalog_file_meta_queue_delete AFTER DELETE ON file_meta
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_catalog_file_meta_queue();
+
+DROP TRIGGER IF EXISTS trigger_catalog_meta_refresh ON catalog_meta_refresh;
+CREATE CONSTRAINT TRIGGER trigger_catalog_meta_refresh AFTER INSERT ON catalog_meta_refresh
+    DEFERRABLE INITIALLY DEFERRED FOR EACH ROW EXECUTE PROCEDURE func_catalog_meta_refresh_queued();
+
+SELECT func_catalog_meta_refresh(ARRAY(SELECT id FROM catalog WHERE type = 'F'));
+
+-- existing directories of a bulk directory creation are looked up by path ignoring case, see DirectoryService
+CREATE INDEX IF NOT EXISTS idx_directory_tenant_lower ON directory (tenant_id, lower(directory)) WHERE deleted = false;
+
+-- materialized directory tree: tree_path holds the ids from the root down to the directory, so the descendants
+-- of a directory, e.g. listed for /path/*, are answered from an index instead of a LIKE scan of paths, see
+-- DirectoryRepo.findPermittedDescendants. A directory without parent hangs under its closest directory by path.
+CREATE EXTENSION IF NOT EXISTS ltree;
+
+ALTER TABLE directory ADD COLUMN IF NOT EXISTS tree_path ltree;
+
+-- paths above a directory path, the closest last: /a and /a/b for /a/b/c
+CREATE OR REPLACE FUNCTION func_directory_ancestor_paths(directory text) RETURNS text[] LANGUAGE SQL IMMUTABLE AS $$
+    SELECT coalesce(array_agg(array_to_string(p[1:n], '/') ORDER BY n), '{}')
+    FROM string_to_array(directory, '/') p, generate_series(2, cardinality(string_to_array(directory, '/')) - 1) n
+$$;
+
+CREATE OR REPLACE FUNCTION func_directory_tree_path() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    NEW.tree_path := COALESCE(
+        (SELECT d.tree_path FROM directory d WHERE d.id = NEW.parent),
+        (SELECT d.tree_path FROM directory d WHERE NEW.parent IS NULL AND d.tenant_id = NEW.tenant_id
+            AND d.directory = ANY(func_directory_ancestor_paths(NEW.directory)) AND d.id <> NEW.id
+            ORDER BY length(d.directory) DESC, d.deleted LIMIT 1),
+        ''::ltree) || NEW.id::text;
+RETURN NEW;
+END;
+$$;
+
+-- a directory moved under another parent takes its subtree along
+CREATE OR REPLACE FUNCTION func_directory_tree_move() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    UPDATE directory SET tree_path = NEW.tree_path || subpath(tree_path, nlevel(OLD.tree_path))
+        WHERE tree_path <@ OLD.tree_path AND id <> NEW.id;
+RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trigger_directory_tree_path ON directory;
+CREATE TRIGGER trigger_directory_tree_path BEFORE INSERT OR UPDATE OF parent ON directory
+    FOR EACH ROW EXECUTE PROCEDURE func_directory_tree_path();
+
+DROP TRIGGER IF EXISTS trigger_directory_tree_move ON directory;
+CREATE TRIGGER trigger_directory_tree_move AFTER UPDATE OF parent ON directory
+    FOR EACH ROW WHEN (OLD.tree_path IS DISTINCT FROM NEW.tree_path) EXECUTE PROCEDURE func_directory_tree_move();
+
+CREATE INDEX IF NOT EXISTS idx_directory_parent ON directory (parent);
+CREATE INDEX IF NOT EXISTS idx_directory_tenant_path ON directory (tenant_id, directory text_pattern_ops);
+
+WITH RECURSIVE link(id, parent) AS (
+    SELECT d.id, coalesce(d.parent, (SELECT a.id FROM directory a WHERE a.tenant_id = d.tenant_id
+        AND a.directory = ANY(func_directory_ancestor_paths(d.directory)) AND a.id <> d.id
+        ORDER BY length(a.directory) DESC, a.deleted LIMIT 1))
+    FROM directory d
+), tree(id, tree_path) AS (
+    SELECT id, id::text::ltree FROM link WHERE parent IS NULL
+    UNION ALL
+    SELECT l.id, t.tree_path || l.id::text FROM link l JOIN tree t ON l.parent = t.id
+)
+UPDATE directory SET tree_path = tree.tree_path FROM tree
+    WHERE directory.id = tree.id AND directory.tree_path IS DISTINCT FROM tree.tree_path;
+-- directories whose parent is gone are roots, as the trigger makes them
+UPDATE directory SET tree_path = id::text::ltree WHERE tree_path IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_directory_tree_path ON directory USING gist (tree_path);
+
+-- bytes of a file stored so far while its upload_status is UPLOADING, see DlsFileStatus
+ALTER TABLE public.file ADD COLUMN IF NOT EXISTS bytes_transferred bigint;
+
+-- instance whose local spool holds the file of a storage write, and the lease its worker renews, see StorageWriteQueue
+ALTER TABLE public.storage_job ADD COLUMN IF NOT EXISTS node character varying;
+ALTER TABLE public.storage_job ADD COLUMN IF NOT EXISTS heartbeat_on timestamp without time zone;
+CREATE INDEX IF NOT EXISTS idx_storage_job_lease ON public.storage_job USING btree (coalesce(heartbeat_on, started_on)) WHERE status = 'RUNNING';
+DROP INDEX IF EXISTS idx_storage_job_running;
+
+-- files sharing content take the upload status of the file writing it, see ContentStore
+CREATE OR REPLACE FUNCTION func_file_content_status() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    IF pg_trigger_depth() > 1 THEN
+        RETURN NEW;
+    END IF;
+    -- waits for a file taking a reference on the content to commit, so its status is passed on as well
+    PERFORM 1 FROM content_object c JOIN file_content fc ON fc.content_id = c.id WHERE fc.file_id = NEW.id FOR UPDATE OF c;
+    UPDATE file f SET uploaded = NEW.uploaded, storage = NEW.storage
+        FROM file_content mine JOIN file_content other ON other.content_id = mine.content_id
+        WHERE mine.file_id = NEW.id AND f.id = other.file_id AND f.id <> NEW.id
+        AND (f.uploaded IS DISTINCT FROM NEW.uploaded OR f.storage IS DISTINCT FROM NEW.storage);
+    RETURN NEW;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trig_file_content_status ON file;
+CREATE TRIGGER trig_file_content_status AFTER UPDATE OF uploaded, storage ON file FOR EACH ROW
+    WHEN (OLD.uploaded IS DISTINCT FROM NEW.uploaded OR OLD.storage IS DISTINCT FROM NEW.storage)
+    EXECUTE PROCEDURE func_file_content_status();
+
+-- a deleted file releases its reference to shared content, ContentStore.purge removes contents left unreferenced
+CREATE OR REPLACE FUNCTION func_file_content_release() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    WITH r AS (DELETE FROM file_content WHERE file_id = OLD.id RETURNING content_id)
+    UPDATE content_object c SET ref_count = c.ref_count - 1 FROM r WHERE c.id = r.content_id;
+    IF TG_OP = 'DELETE' THEN
+        RETURN OLD;
+    END IF;
+    RETURN NEW;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trig_file_content_release ON file;
+CREATE TRIGGER trig_file_content_release AFTER UPDATE OF deleted ON file FOR EACH ROW
+    WHEN (NEW.deleted AND NOT coalesce(OLD.deleted, false))
+    EXECUTE PROCEDURE func_file_content_release();
+DROP TRIGGER IF EXISTS trig_file_content_release_delete ON file;
+CREATE TRIGGER trig_file_content_release_delete BEFORE DELETE ON file FOR EACH ROW
+    EXECUTE PROCEDURE func_file_content_release();
+CREATE INDEX IF NOT EXISTS idx_content_object_unreferenced ON public.content_object USING btree (id) WHERE ref_count <= 0;
+CREATE INDEX IF NOT EXISTS idx_content_object_fs_path ON public.content_object USING btree (fs_path text_pattern_ops);
+
+-- changes of directory permissions, one row per directory path changed by a statement, see DirectoryAclIndex.
+-- Every DLS instance applies the permissions of the changed paths to its index, so a revoked permission is
+-- not honoured longer than a poll. Like tenant_catalog_change rows are only appended and ordered by xact_id.
+CREATE TABLE IF NOT EXISTS public.directory_acl_change (
+    id bigserial NOT NULL PRIMARY KEY,
+    tenant_id bigint NOT NULL,
+    directory text NOT NULL,
+    xact_id xid8 DEFAULT pg_current_xact_id() NOT NULL,
+    changed_on timestamp without time zone DEFAULT clock_timestamp() NOT NULL
+);
+ALTER TABLE public.directory_acl_change OWNER TO dlsusr;
+CREATE INDEX IF NOT EXISTS idx_directory_acl_change_xact ON public.directory_acl_change USING btree (xact_id);
+
+CREATE OR REPLACE FUNCTION func_directory_acl_change_permission() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO directory_acl_change (tenant_id, directory)
+            SELECT DISTINCT d.tenant_id, d.directory FROM new_rows p JOIN directory d ON d.id = p.directory_id
+            WHERE d.tenant_id IS NOT NULL AND d.directory IS NOT NULL;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO directory_acl_change (tenant_id, directory)
+            SELECT DISTINCT d.tenant_id, d.directory FROM old_rows p JOIN directory d ON d.id = p.directory_id
+            WHERE d.tenant_id IS NOT NULL AND d.directory IS NOT NULL;
+    ELSE
+        INSERT INTO directory_acl_change (tenant_id, directory)
+            SELECT d.tenant_id, d.directory FROM new_rows p JOIN directory d ON d.id = p.directory_id
+            WHERE d.tenant_id IS NOT NULL AND d.directory IS NOT NULL
+            UNION SELECT d.tenant_id, d.directory FROM old_rows p JOIN directory d ON d.id = p.directory_id
+            WHERE d.tenant_id IS NOT NULL AND d.directory IS NOT NULL;
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trigger_directory_acl_change_permission_insert ON permission;
+CREATE TRIGGER trigger_directory_acl_change_permission_insert AFTER INSERT ON permission
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_directory_acl_change_permission();
+
+DROP TRIGGER IF EXISTS trigger_directory_acl_change_permission_update ON permission;
+CREATE TRIGGER trigger_directory_acl_change_permission_update AFTER UPDATE ON permission
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_directory_acl_change_permission();
+
+DROP TRIGGER IF EXISTS trigger_directory_acl_change_permission_delete ON permission;
+CREATE TRIGGER trigger_directory_acl_change_permission_delete AFTER DELETE ON permission
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_directory_acl_change_permission();
+
+-- a directory created, deleted, renamed or marked deleted changes what its path's permissions grant
+CREATE OR REPLACE FUNCTION func_directory_acl_change_directory() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO directory_acl_change (tenant_id, directory)
+            SELECT DISTINCT tenant_id, directory FROM new_rows WHERE tenant_id IS NOT NULL AND directory IS NOT NULL;
+    ELSIF TG_OP = 'DELETE' THEN
+        INSERT INTO directory_acl_change (tenant_id, directory)
+            SELECT DISTINCT tenant_id, directory FROM old_rows WHERE tenant_id IS NOT NULL AND directory IS NOT NULL;
+    ELSE
+        INSERT INTO directory_acl_change (tenant_id, directory)
+            SELECT c.tenant_id, c.directory FROM old_rows o JOIN new_rows n ON n.id = o.id,
+                LATERAL (VALUES (o.tenant_id, o.directory), (n.tenant_id, n.directory)) AS c (tenant_id, directory)
+            WHERE (o.directory IS DISTINCT FROM n.directory OR o.deleted IS DISTINCT FROM n.deleted
+                OR o.tenant_id IS DISTINCT FROM n.tenant_id)
+                AND c.tenant_id IS NOT NULL AND c.directory IS NOT NULL
+            GROUP BY c.tenant_id, c.directory;
+    END IF;
+RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trigger_directory_acl_change_directory_insert ON directory;
+CREATE TRIGGER trigger_directory_acl_change_directory_insert AFTER INSERT ON directory
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_directory_acl_change_directory();
+
+DROP TRIGGER IF EXISTS trigger_directory_acl_change_directory_update ON directory;
+CREATE TRIGGER trigger_directory_acl_change_directory_update AFTER UPDATE ON directory
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_directory_acl_change_directory();
+
+DROP TRIGGER IF EXISTS trigger_directory_acl_change_directory_delete ON directory;
+CREATE TRIGGER trigger_directory_acl_change_directory_delete AFTER DELETE ON directory
+    REFERENCING OLD TABLE AS old_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_directory_acl_change_directory();
+
+-- catalog searches only return files in directories the user may read, so a permission change is a change
+-- of the tenant's catalog for CatalogResultCache as well
+CREATE OR REPLACE FUNCTION func_tenant_catalog_version_acl() RETURNS TRIGGER LANGUAGE PLPGSQL AS $$
+BEGIN
+    INSERT INTO tenant_catalog_change (tenant_id) SELECT DISTINCT tenant_id FROM new_rows;
+RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS trigger_tenant_catalog_version_acl ON directory_acl_change;
+CREATE TRIGGER trigger_tenant_catalog_version_acl AFTER INSERT ON directory_acl_change
+    REFERENCING NEW TABLE AS new_rows FOR EACH STATEMENT EXECUTE PROCEDURE func_tenant_catalog_version_acl();
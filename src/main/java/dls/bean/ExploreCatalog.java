@@ -10,13 +10,19 @@ import java.util.List;
 public record ExploreCatalog(@JsonProperty("current-page")
                              int page,
                              @JsonProperty("total-page")
-                             int totalPage,
+                             Integer totalPage,
                              @JsonProperty("record-count")
-                             long count,
+                             Long count,
                              @JsonInclude(JsonInclude.Include.NON_EMPTY)
                              List<Record> directories,
                              @JsonInclude(JsonInclude.Include.NON_EMPTY)
-                             List<Record> files) {
+                             List<Record> files,
+                             @JsonProperty("next-token")
+                             String nextToken) {
+
+    public ExploreCatalog(int page, int totalPage, long count, List<Record> directories, List<Record> files) {
+        this(page, totalPage, count, directories, files, null);
+    }
 
     @JsonInclude(JsonInclude.Include.NON_NULL)
 
@@ -0,0 +1,89 @@
+package dls.repo;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+public class ExplorerViewSpecificationTest {
+
+	public static void main(String[] args) {
+
+		checkPostgresSyntax();
+		checkWithoutLiteral();
+		fuzzJavaRegex(100000);
+	}
+
+	/**
+	 * Regexes without a literal long enough for the index are searched without it, not rejected
+	 */
+	private static void checkWithoutLiteral() {
+
+		for(String regex : new String[] {"\\.(csv|tsv)$", "^\\d{4}-\\d{2}", "^[a-z]+$"}) {
+			ExplorerViewSpecification.hasNameRegex(regex);
+			System.out.println(regex + " ---> \"" + ExplorerViewSpecification.requiredLiteral(regex) + "\"");
+		}
+	}
+
+	/**
+	 * Bracket expressions only PostgreSQL reads, literals of which must not leak out of the class
+	 */
+	private static void checkPostgresSyntax() {
+
+		Map<String, String> expected = Map.ofEntries(
+				Map.entry("[[:alpha:]]report", "report"),
+				Map.entry("report[[:digit:]]+", "report"),
+				Map.entry("[^[:space:]]report", "report"),
+				Map.entry("[[:alpha:][:digit:]]report", "report"),
+				Map.entry("[[=e=]]report", "report"),
+				Map.entry("[[.-.]]report", "report"),
+				Map.entry("[a[:alpha:]b]report[]x]", "report"),
+				Map.entry("[[:alpha:]report", ""),
+				Map.entry("[a[b]report", ""),
+				Map.entry("[]]report", "report"),
+				Map.entry("[^]]report", "report"));
+		expected.forEach((regex, literal) -> {
+			String found = ExplorerViewSpecification.requiredLiteral(regex);
+			if(!literal.equals(found)) {
+				throw new AssertionError(regex + " ---> " + found + ", expected " + literal);
+			}
+			System.out.println(regex + " ---> " + found);
+		});
+	}
+
+	/**
+	 * Every string a random regex finds must contain the literal required of it
+	 */
+	private static void fuzzJavaRegex(int rounds) {
+
+		Random random = new Random(17);
+		String alphabet = "abc.*+?|()[]^\\{}1,";
+		int checked = 0;
+		for(int r = 0; r < rounds; r++) {
+			StringBuilder regex = new StringBuilder();
+			for(int i = random.nextInt(10) + 1; i > 0; i--) {
+				regex.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			Pattern pattern;
+			try {
+				pattern = Pattern.compile(regex.toString());
+			} catch (PatternSyntaxException e) {
+				continue;
+			}
+			// nested classes are unions in Java but literals in PostgreSQL
+			if(regex.indexOf("[") != regex.lastIndexOf("[")) continue;
+			String literal = ExplorerViewSpecification.requiredLiteral(regex.toString());
+			for(int s = 0; s < 50; s++) {
+				StringBuilder name = new StringBuilder();
+				for(int i = random.nextInt(8); i > 0; i--) {
+					name.append("abc1".charAt(random.nextInt(4)));
+				}
+				if(pattern.matcher(name).find() && !name.toString().contains(literal)) {
+					throw new AssertionError(regex + " finds " + name + " without " + literal);
+				}
+			}
+			checked++;
+		}
+		System.out.println(checked + " regexes checked");
+	}
+}
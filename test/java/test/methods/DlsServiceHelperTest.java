@@ -1,8 +1,16 @@
 package test.methods;
 
+import com.google.common.collect.Lists;
+import dls.exception.DlsValidationException;
 import dls.service.DlsServiceHelper;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import static dls.util.BeanValidationConstraint.SAVEPOINT_REGEX;
@@ -31,6 +39,7 @@ public class DlsServiceHelperTest {
 		checkMetadataRegex();
 //		checkMetadataValueRegex();
 //		checkSavepointRegex();
+		checkValidate(100000);
 	}
 
 
@@ -105,4 +114,115 @@ public class DlsServiceHelperTest {
 		}
 	}
 
+	/**
+	 * {@link DlsServiceHelper#validate(String...)} must give the same map, or fail with the same message key, as
+	 * the regex based validation it replaced, for the listed entries and for random ones
+	 */
+	private static void checkValidate(int rounds) {
+
+		List<String[]> inputs = Lists.newArrayList();
+		for(String m : new String[] {
+				"key=value", "private@key=value", "public@key=value", "key=public@value", "key = value ",
+				"key=\"value\"", "key=value,other=more", "key=a b c", "key=2023-07-17 10:00:00.000 +5:30",
+				"key=val=ue", "key=", "=value", "ke y=value", "ke,y=value", "k=value", "key=v*", "key=key",
+				"key=v'", "key=v&w", "key!=value", "key= ", "key=" + "v".repeat(256), "k".repeat(256) + "=value",
+				"private@ab=value", "private@abc=value", "", " "}) {
+			inputs.add(new String[] {m});
+		}
+		inputs.add(new String[] {"key=value", "KEY=other"});
+		inputs.add(new String[] {"key=value", "private@key=other"});
+		inputs.add(new String[] {"private@key=value", "key=other"});
+		inputs.add(new String[DlsServiceHelper.MAX_METADATA_COUNT + 1]);
+		Arrays.fill(inputs.get(inputs.size() - 1), "key=value");
+
+		Random random = new Random(17);
+		String[] tokens = {"key", "ab", "x1", "private@", "public@", "=", ",", " ", ", ", "'", "\"", "*", "&", "val", "_"};
+		for(int r = 0; r < rounds; r++) {
+			String[] metadata = new String[random.nextInt(3) + 1];
+			for(int i = 0; i < metadata.length; i++) {
+				// mostly a key and a value around one '=', so that many of them are valid
+				StringBuilder m = new StringBuilder();
+				for(int part = random.nextInt(4) == 0 ? 1 : 2; part > 0; part--) {
+					for(int t = random.nextInt(3) + 1; t > 0; t--) {
+						m.append(tokens[random.nextInt(tokens.length)]);
+					}
+					if(part == 2) m.append('=');
+				}
+				metadata[i] = m.toString();
+			}
+			inputs.add(metadata);
+		}
+
+		DlsServiceHelper dhelper = new DlsServiceHelper();
+		int valid = 0;
+		for(String[] metadata : inputs) {
+			String expected = outcome(() -> regexValidate(metadata));
+			String found = outcome(() -> dhelper.validate(metadata));
+			if(!expected.equals(found)) {
+				throw new AssertionError(Arrays.toString(metadata) + " ---> " + found + ", expected " + expected);
+			}
+			if(!expected.startsWith("error")) valid++;
+		}
+		System.out.println(inputs.size() + " inputs checked, " + valid + " valid");
+	}
+
+	private static String outcome(Supplier<Map<String, String>> validate) {
+
+		try {
+			return validate.get().toString();
+		} catch (DlsValidationException e) {
+			return "error " + e.getMessage();
+		}
+	}
+
+	private static final Pattern KV_PATTERN = Pattern.compile("(public@|private@)?(([^\\s,=]+=[^,=]+)(?:,\\s*)?)+");
+
+	/**
+	 * The regex based validation as it was before {@link DlsServiceHelper#validate(String...)} was rewritten
+	 */
+	private static Map<String, String> regexValidate(String... metadata) {
+
+		Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		if(metadata.length > DlsServiceHelper.MAX_METADATA_COUNT) {
+			throw new DlsValidationException("too.many.metadata");
+		}
+		for(String m : metadata) {
+			if(! KV_PATTERN.matcher(m).matches()) {
+				throw new DlsValidationException("invalid.kv.format");
+			}
+			Map <String, String> kvMap = new HashMap<>();
+			kvMap.put(m.replace("\"", " ").split("=")[0].trim(),
+					m.replace("\"", " ").split("=")[1].trim().replaceFirst("public@", ""));
+			for(String k : kvMap.keySet()) {
+				if(! k.matches(DlsServiceHelper.METADATA_KEY_REGEX)) {
+					throw new DlsValidationException("invalid.metadata.key");
+				}
+				if(k.length() > DlsServiceHelper.MAX_KEY_LEN) {
+					throw new DlsValidationException("invalid.metadata.key.max.length");
+				}
+				if(k.length() < DlsServiceHelper.MIN_KEY_LEN) {
+					throw new DlsValidationException("invalid.metadata.key.min.length");
+				}
+				if(map.containsKey(k.replace("private@",""))) {
+					throw new DlsValidationException("duplicate.kv.key");
+				}
+				String v = kvMap.get(k).trim();
+				if(! v.matches(DlsServiceHelper.METADATA_VAL_REGEX)) {
+					throw new DlsValidationException("invalid.metadata.value");
+				}
+				if(v.length() > DlsServiceHelper.MAX_VAL_LEN) {
+					throw new DlsValidationException("invalid.metadata.value.max.length");
+				}
+				if(v.length() < DlsServiceHelper.MIN_VAL_LEN) {
+					throw new DlsValidationException("invalid.metadata.value.min.length");
+				}
+				if(k.equalsIgnoreCase(v)) {
+					throw new DlsValidationException("funny.metadata");
+				}
+			}
+			map.putAll(kvMap);
+		}
+		return map;
+	}
+
 }